@@ -0,0 +1,130 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The bundled Base64 codec against java.util.Base64, at screenshot sized payloads,
+ * including the streaming variants and the Base64ChannelWriter used by
+ * writeBase64ScreenCapture.  Run main() to include the gc profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Base64Benchmark {
+
+	/** decoded size in bytes: a small capture, a full page, a long full page */
+	@Param({"262144", "4194304", "16777216"})
+	public int size;
+
+	protected byte[] png;
+	protected String base64;
+	protected byte[] base64Bytes;
+	protected byte[] readBuffer = new byte[64 * 1024];
+	protected WritableByteChannel nullChannel = new WritableByteChannel() {
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+		public boolean isOpen() { return true; }
+		public void close() {}
+	};
+	protected OutputStream nullStream = new OutputStream() {
+		public void write(int b) {}
+		public void write(byte[] b, int off, int len) {}
+	};
+
+	@Setup
+	public void setup() {
+		png = new byte[size];
+		new Random(42).nextBytes(png);
+		base64 = java.util.Base64.getEncoder().encodeToString(png);
+		base64Bytes = base64.getBytes(java.nio.charset.Charset.forName("US-ASCII"));
+	}
+
+	@Benchmark
+	public byte[] bundledDecode() throws IOException {
+		return Base64.decode(base64);
+	}
+
+	@Benchmark
+	public byte[] jdkDecode() {
+		return java.util.Base64.getDecoder().decode(base64);
+	}
+
+	@Benchmark
+	public String bundledEncode() {
+		return Base64.encodeBytes(png);
+	}
+
+	@Benchmark
+	public String jdkEncode() {
+		return java.util.Base64.getEncoder().encodeToString(png);
+	}
+
+	@Benchmark
+	public long bundledStreamDecode() throws IOException {
+		return drain(new Base64.InputStream(new ByteArrayInputStream(base64Bytes), Base64.DECODE));
+	}
+
+	@Benchmark
+	public long jdkWrapDecode() throws IOException {
+		return drain(java.util.Base64.getDecoder().wrap(new ByteArrayInputStream(base64Bytes)));
+	}
+
+	@Benchmark
+	public void bundledStreamDecodeToStream() throws IOException {
+		Base64.OutputStream decoder = new Base64.OutputStream(nullStream, Base64.DECODE);
+		decoder.write(base64Bytes);
+		decoder.close();
+	}
+
+	@Benchmark
+	public long channelWriterDecode() throws IOException {
+		return Base64ChannelWriter.write(base64, nullChannel);
+	}
+
+	private long drain(InputStream in) throws IOException {
+		long total = 0;
+		int n;
+		while ((n = in.read(readBuffer)) > 0) {
+			total += n;
+		}
+		return total;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(Base64Benchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
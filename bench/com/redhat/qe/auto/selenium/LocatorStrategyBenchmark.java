@@ -0,0 +1,101 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput and allocation rate of locator resolution, using the templates
+ * from UILocatorStrategies.  Run main() to get the numbers together with
+ * the gc profiler (look at gc.alloc.rate.norm for bytes per call).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocatorStrategyBenchmark {
+
+	protected UILocatorStrategies ui;
+	protected LocatorStrategy sandwichOrLink;
+	protected LocatorSandwich anyOf;
+	protected Element cellElement;
+	protected Element divSpanElement;
+
+	@Setup
+	public void setup() {
+		ui = new UILocatorStrategies();
+		anyOf = new LocatorSandwich("any of", "//*[", " or ", "]");
+		sandwichOrLink = new CombinedLocatorTemplate("any of, then link", anyOf, ui.link);
+		cellElement = new Element(ui.cellInTableMatchingTwoColumns, "list", "host1.example.com", "2", "Active", "5");
+		divSpanElement = new Element(ui.div_span, "menu", "item");
+	}
+
+	@Benchmark
+	public String locatorTemplate() {
+		return ui.cellInTableMatchingTwoColumns.getLocator("list", "host1.example.com", "2", "Active", "5");
+	}
+
+	@Benchmark
+	public String locatorTemplateOneArg() {
+		return ui.id.getLocator("content");
+	}
+
+	@Benchmark
+	public String combinedLocatorTemplate() {
+		return ui.div_span.getLocator("menu", "item");
+	}
+
+	@Benchmark
+	public String combinedLocatorTemplateDynamic() {
+		return sandwichOrLink.getLocator("@id='a'", "@id='b'", "Login");
+	}
+
+	@Benchmark
+	public String stringSandwichLocatorStrategy() {
+		return ui.checkboxNextToText.getLocator("host1.example.com");
+	}
+
+	@Benchmark
+	public String locatorSandwich() {
+		return anyOf.getLocator("@id='a'", "@id='b'", "@id='c'");
+	}
+
+	@Benchmark
+	public String elementGetLocator() {
+		return cellElement.getLocator();
+	}
+
+	@Benchmark
+	public String elementToString() {
+		return cellElement.toString();
+	}
+
+	@Benchmark
+	public String combinedElementToString() {
+		return divSpanElement.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(LocatorStrategyBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,142 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.redhat.qe.jul.TestRecords;
+
+/**
+ * ConsoleLogFormatter against the formatter it replaced (kept here as
+ * LegacyConsoleLogFormatter), for a typical action record.  The record's time
+ * moves forward a little with every call, like real logging.  Run main() to include
+ * the gc profiler; gc.alloc.rate.norm is the bytes allocated per formatted record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LogFormatterBenchmark {
+
+	/**
+	 * ConsoleLogFormatter as it was: a shared SimpleDateFormat (synchronized here,
+	 * so the benchmark threads don't corrupt it), string concatenation and a
+	 * StringWriter for throwables.
+	 */
+	public static class LegacyConsoleLogFormatter extends Formatter {
+		private static final DateFormat sdf = new SimpleDateFormat("yyyyMMddHHmm:ss.SSS");
+
+		@Override
+		public String format(LogRecord record) {
+			String date;
+			synchronized (sdf) {
+				date = sdf.format(new Date(record.getMillis()));
+			}
+			String throwable = "";
+			String message = record.getMessage();
+			if (record.getThrown() != null) throwable = throwableToString(record.getThrown())  + "\n";
+			if (record.getParameters() != null)
+				for (Object param: record.getParameters()){
+					if (param.equals(TestRecords.Style.Banner))
+						message = "======= " + message;
+				}
+			return date + " - " + record.getLevel() + ": " + message + " (" + record.getSourceClassName() + "."
+			+ record.getSourceMethodName() + ")\n" + throwable;
+		}
+
+		protected String throwableToString(Throwable t){
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			t.printStackTrace(pw);
+			return sw.toString();
+		}
+	}
+
+	/**
+	 * A record whose time is the benchmark's clock, rather than set with the deprecated
+	 * LogRecord.setMillis.
+	 */
+	protected static class ClockedRecord extends LogRecord {
+		private static final long serialVersionUID = 4021397431524218533L;
+
+		protected long millis;
+
+		public ClockedRecord(Level level, String message) {
+			super(level, message);
+		}
+
+		@Override
+		public long getMillis() {
+			return millis;
+		}
+	}
+
+	protected Formatter legacy = new LegacyConsoleLogFormatter();
+	protected Formatter console = new ConsoleLogFormatter();
+	protected Formatter simple = new SimpleConsoleLogFormatter();
+	protected ClockedRecord record;
+
+	@Setup
+	public void setup() {
+		record = new ClockedRecord(Level.INFO, "Click on button: 'Save'");
+		record.setLoggerName(ExtendedSelenium.class.getName());
+		record.setSourceClassName(ExtendedSelenium.class.getName());
+		record.setSourceMethodName("click");
+		record.setParameters(new Object[] {TestRecords.Style.Action});
+		record.millis = System.currentTimeMillis();
+	}
+
+	protected LogRecord next() {
+		record.millis += 3;
+		return record;
+	}
+
+	@Benchmark
+	public String legacyConsoleFormatter() {
+		return legacy.format(next());
+	}
+
+	@Benchmark
+	public String consoleFormatter() {
+		return console.format(next());
+	}
+
+	@Benchmark
+	public String simpleConsoleFormatter() {
+		return simple.format(next());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(LogFormatterBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,87 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.redhat.qe.jul.TestRecords;
+
+/**
+ * What it costs to find out where a record came from.  Each call makes a new record,
+ * as a log call would, and formats it: a plain LogRecord makes ConsoleLogFormatter
+ * walk the stack, a SourcedLogRecord (what ExtendedSelenium's actions log) carries its
+ * source, and ConsoleLogFormatter(false) never asks.  Run main() to include the gc
+ * profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceInferenceBenchmark {
+
+	private static final String MESSAGE = "Click on button: 'Save'";
+	private static final String CLASS_NAME = ExtendedSelenium.class.getName();
+
+	protected Formatter inferring = new ConsoleLogFormatter(true);
+	protected Formatter nonInferring = new ConsoleLogFormatter(false);
+
+	protected static LogRecord plainRecord() {
+		LogRecord record = new LogRecord(Level.INFO, MESSAGE);
+		record.setLoggerName(CLASS_NAME);
+		record.setParameters(new Object[] {TestRecords.Style.Action});
+		return record;
+	}
+
+	protected static LogRecord sourcedRecord() {
+		SourcedLogRecord record = new SourcedLogRecord(Level.INFO, MESSAGE).source(CLASS_NAME, "click");
+		record.setLoggerName(CLASS_NAME);
+		record.setParameters(new Object[] {TestRecords.Style.Action});
+		return record;
+	}
+
+	@Benchmark
+	public String inferredSource() {
+		return inferring.format(plainRecord());
+	}
+
+	@Benchmark
+	public String explicitSource() {
+		return inferring.format(sourcedRecord());
+	}
+
+	@Benchmark
+	public String noInference() {
+		return nonInferring.format(plainRecord());
+	}
+
+	@Benchmark
+	public String noInferenceExplicitSource() {
+		return nonInferring.format(sourcedRecord());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(SourceInferenceBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -4,4 +4,8 @@
   :dependencies [[org.seleniumhq.selenium.client-drivers/selenium-java-client-driver "1.0.2"]
                  [com.redhat.qe/jul.test.records "1.0.0"]]
   :javac-options {:debug "on"}
-  :plugins [[lein-eclipse "1.0.0"]])
+  :plugins [[lein-eclipse "1.0.0"]]
+  ;; JMH benchmarks, eg: lein with-profile +bench run -m com.redhat.qe.auto.selenium.LocatorStrategyBenchmark
+  :profiles {:bench {:java-source-paths ["src" "bench"]
+                     :dependencies [[org.openjdk.jmh/jmh-core "1.37"]
+                                    [org.openjdk.jmh/jmh-generator-annprocess "1.37"]]}})
@@ -0,0 +1,248 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes screenshots and html captures to disk on background threads, so that
+ * the test thread only pays for fetching the data from the browser.  The queue is
+ * bounded: when it is full, the test thread does the write itself (which slows
+ * it down until the writers catch up), as it does once the writer is shut down.
+ * A write that fails is retried with its fallback, if it has one, and counted
+ * as failed if that fails too.  Pending writes are flushed when the JVM shuts down.
+ */
+public class AsyncArtifactWriter {
+
+	private static Logger log = Logger.getLogger(AsyncArtifactWriter.class.getName());
+	private static AsyncArtifactWriter shared = null;
+	private static final Set<AsyncArtifactWriter> writers = Collections.newSetFromMap(new ConcurrentHashMap<AsyncArtifactWriter, Boolean>());
+	private static Thread shutdownHook = null;
+
+	protected ThreadPoolExecutor executor = null;
+	protected AtomicInteger pending = new AtomicInteger();
+	protected AtomicInteger failed = new AtomicInteger();
+	protected final Object flushLock = new Object();
+
+	/**
+	 * @param threads - number of writer threads
+	 * @param queueSize - how many writes can wait before the callers have to write themselves
+	 */
+	public AsyncArtifactWriter(int threads, int queueSize) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "selenium-artifact-writer-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						r.run();  // queue full (or shut down meanwhile): write on the caller's thread
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		writers.add(this);
+		installShutdownHook();
+	}
+
+	/**
+	 * One hook for all writers, that flushes whatever they still have pending.
+	 */
+	private static synchronized void installShutdownHook() {
+		if (shutdownHook != null) return;
+		shutdownHook = new Thread("selenium-artifact-writer-flush") {
+			public void run() {
+				for (AsyncArtifactWriter writer: writers) {
+					writer.flush(30, TimeUnit.SECONDS);
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * @return the writer shared by all sessions (2 threads, 64 queued writes,
+	 * configurable with selenium.artifact.writer.threads and selenium.artifact.writer.queue)
+	 */
+	public static synchronized AsyncArtifactWriter getShared() {
+		if (shared == null) {
+			shared = new AsyncArtifactWriter(Integer.getInteger("selenium.artifact.writer.threads", 2),
+					Integer.getInteger("selenium.artifact.writer.queue", 64));
+		}
+		return shared;
+	}
+
+	/**
+	 * Queue a write.
+	 * @param file - the file the task writes, returned by the future when it's done
+	 * @param write - the task that does the decoding and writing
+	 * @return a future that completes with the file once it has been written
+	 */
+	public Future<File> submit(File file, Callable<?> write) {
+		return submit(file, write, null, null);
+	}
+
+	/**
+	 * Queue a write, with another way to write it if that fails (eg to the tmp dir).
+	 * @param fallbackFile - the file the fallback writes, returned by the future instead of file
+	 * @param fallback - the task to run if write fails, or null
+	 * @return a future that completes with the file written, or fails if neither could be
+	 */
+	public Future<File> submit(final File file, final Callable<?> write, final File fallbackFile, final Callable<?> fallback) {
+		final boolean async = !executor.isShutdown();
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			public File call() throws Exception {
+				try {
+					return write(file, write, fallbackFile, fallback);
+				}
+				finally {
+					if (async) done();
+				}
+			}
+		});
+		if (!async) {
+			task.run();
+			return task;
+		}
+		pending.incrementAndGet();
+		executor.execute(task);
+		return task;
+	}
+
+	protected File write(File file, Callable<?> write, File fallbackFile, Callable<?> fallback) throws Exception {
+		try {
+			write.call();
+			return file;
+		}
+		catch (Exception e) {
+			if (fallback == null) {
+				failed.incrementAndGet();
+				log.log(Level.WARNING, "Could not write " + file, e);
+				throw e;
+			}
+			log.log(Level.FINER, "Could not write " + file + ", writing " + fallbackFile + " instead.", e);
+		}
+		try {
+			fallback.call();
+			log.log(Level.WARNING, "Could not write " + file + ", wrote " + fallbackFile + " instead.");
+			return fallbackFile;
+		}
+		catch (Exception e) {
+			failed.incrementAndGet();
+			log.log(Level.WARNING, "Could not write " + file + " or " + fallbackFile, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop the writer threads once the queued writes are done.  Writes submitted
+	 * after this are done by the caller.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		writers.remove(this);
+	}
+
+	/**
+	 * Wait until all writes queued so far are on disk.
+	 * @return false if the timeout expired first
+	 */
+	public boolean flush(long timeout, TimeUnit unit) {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		synchronized (flushLock) {
+			while (pending.get() > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					log.log(Level.WARNING, pending.get() + " screenshot/html captures were not written within " + unit.toMillis(timeout) + "ms.");
+					return false;
+				}
+				try {
+					flushLock.wait(remaining);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until the given writes (eg one session's) are done, whatever else is queued.
+	 * Writes that failed count as done, they have been logged already.
+	 * @return false if the timeout expired first
+	 */
+	public boolean flush(Collection<? extends Future<?>> writes, long timeout, TimeUnit unit) {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		for (Future<?> write: writes) {
+			try {
+				write.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			}
+			catch (ExecutionException ee) {
+				// logged and counted by write()
+			}
+			catch (TimeoutException te) {
+				log.log(Level.WARNING, "Screenshot/html captures were not written within " + unit.toMillis(timeout) + "ms.");
+				return false;
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a future for a file that has already been written, for callers that 
+	 *  wrote it themselves
+	 */
+	public static Future<File> written(final File file) {
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			public File call() {
+				return file;
+			}
+		});
+		task.run();
+		return task;
+	}
+
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * @return how many writes (and their fallbacks) failed
+	 */
+	public int getFailedCount() {
+		return failed.get();
+	}
+
+	protected void done() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (flushLock) {
+				flushLock.notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that formats and writes records on a background thread, so that
+ * test threads logging in parallel don't wait for each other (or for the console).
+ * Records go into a fixed size lock-free ring that any number of threads can add to;
+ * a single consumer thread takes them out, formats them (with ConsoleLogFormatter by
+ * default) and writes them to the stream, flushing whenever it catches up.
+ * <p>
+ * Everything that has to happen on the logging thread happens in publish: the
+ * message of a LazyLogRecord is built (it may talk to the browser), and the source
+ * class and method are inferred if the formatter prints them.
+ * <p>
+ * When the ring is full, the DROP policy throws away records at or below dropLevel
+ * (FINEST by default) and makes the others wait for space; BLOCK makes every record
+ * wait.  Configured by LogManager properties, eg
+ * <pre>
+ * handlers = com.redhat.qe.auto.selenium.AsyncLogHandler
+ * com.redhat.qe.auto.selenium.AsyncLogHandler.level = FINE
+ * com.redhat.qe.auto.selenium.AsyncLogHandler.capacity = 8192
+ * com.redhat.qe.auto.selenium.AsyncLogHandler.overflow = DROP
+ * com.redhat.qe.auto.selenium.AsyncLogHandler.dropLevel = FINER
+ * </pre>
+ * ExtendedSelenium.stop() flushes all AsyncLogHandlers.
+ */
+public class AsyncLogHandler extends Handler {
+
+	public enum OverflowPolicy { BLOCK, DROP }
+
+	private static final Set<AsyncLogHandler> handlers = Collections.newSetFromMap(new ConcurrentHashMap<AsyncLogHandler, Boolean>());
+	private static final int FLUSH_EVERY = 256;
+
+	protected final int mask;
+	protected final AtomicReferenceArray<LogRecord> slots;
+	protected final AtomicLongArray sequences;
+	protected final AtomicLong tail = new AtomicLong();  // next position producers claim
+	protected volatile long head = 0;                    // next position the consumer reads
+	protected volatile long flushedUpTo = 0;             // everything before this is written out
+	protected final AtomicLong dropped = new AtomicLong();
+
+	protected OverflowPolicy overflowPolicy;
+	protected Level dropLevel;
+	protected volatile boolean inferSource = true;
+	protected final Writer writer;
+	protected final Thread consumer;
+	protected volatile boolean running = true;
+	protected volatile boolean consumerParked = false;
+
+	/**
+	 * A handler configured from the LogManager properties, writing to System.err
+	 * (like ConsoleHandler).
+	 */
+	public AsyncLogHandler() {
+		this(System.err, intProperty("capacity", 8192),
+				OverflowPolicy.valueOf(property("overflow", "DROP").trim().toUpperCase()),
+				Level.parse(property("dropLevel", "FINEST").trim()));
+		setLevel(Level.parse(property("level", "ALL").trim()));
+	}
+
+	/**
+	 * @param out - where the formatted records are written
+	 * @param capacity - how many records can wait (rounded up to a power of 2)
+	 * @param overflowPolicy - what to do when that many are waiting
+	 * @param dropLevel - with the DROP policy, records at or below this level are dropped when full
+	 */
+	public AsyncLogHandler(OutputStream out, int capacity, OverflowPolicy overflowPolicy, Level dropLevel) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<LogRecord>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.overflowPolicy = overflowPolicy;
+		this.dropLevel = dropLevel;
+		Writer w;
+		try {
+			String encoding = property("encoding", null);
+			w = encoding == null ? new OutputStreamWriter(out) : new OutputStreamWriter(out, encoding);
+		}
+		catch (UnsupportedEncodingException e) {
+			w = new OutputStreamWriter(out);
+		}
+		this.writer = new BufferedWriter(w, 16 * 1024);
+		setFormatter(new ConsoleLogFormatter());
+		consumer = new Thread("async-log-handler") {
+			public void run() {
+				consume();
+			}
+		};
+		consumer.setDaemon(true);
+		consumer.start();
+		handlers.add(this);
+	}
+
+	@Override
+	public synchronized void setFormatter(Formatter formatter) {
+		super.setFormatter(formatter);
+		inferSource = !(formatter instanceof TimestampedLogFormatter) || ((TimestampedLogFormatter) formatter).needsSource();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (!running || !isLoggable(record)) return;
+		// resolve everything that depends on the calling thread before handing the record over
+		record.getMessage();
+		if (inferSource) record.getSourceClassName();
+
+		boolean droppable = overflowPolicy == OverflowPolicy.DROP && record.getLevel().intValue() <= dropLevel.intValue();
+		int spins = 0;
+		while (!offer(record)) {
+			if (droppable) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (!running) return;
+			LockSupport.unpark(consumer);
+			if (++spins < 100) Thread.yield();
+			else LockSupport.parkNanos(100000);
+		}
+		if (consumerParked) LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Add a record to the ring (Vyukov's bounded queue: each slot has a sequence number
+	 * that tells producers and the consumer whose turn it is).
+	 * @return false if the ring is full
+	 */
+	protected boolean offer(LogRecord record) {
+		long pos = tail.get();
+		while (true) {
+			int index = (int) (pos & mask);
+			long difference = sequences.get(index) - pos;
+			if (difference == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots.set(index, record);
+					sequences.set(index, pos + 1);  // publishes the record to the consumer
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if (difference < 0) return false;
+			else pos = tail.get();
+		}
+	}
+
+	/**
+	 * @return the next record, or null if none is ready (consumer thread only)
+	 */
+	protected LogRecord poll() {
+		long pos = head;
+		int index = (int) (pos & mask);
+		if (sequences.get(index) != pos + 1) return null;
+		LogRecord record = slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, pos + mask + 1);  // free for the producer one lap later
+		head = pos + 1;
+		return record;
+	}
+
+	protected void consume() {
+		int sinceFlush = 0;
+		while (true) {
+			LogRecord record = poll();
+			if (record != null) {
+				write(record);
+				if (++sinceFlush >= FLUSH_EVERY) {
+					flushWriter();
+					sinceFlush = 0;
+				}
+				continue;
+			}
+			if (sinceFlush > 0 || flushedUpTo != head) {
+				flushWriter();
+				sinceFlush = 0;
+			}
+			if (!running && head == tail.get()) return;
+			consumerParked = true;
+			if (head == tail.get()) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(50));
+			consumerParked = false;
+		}
+	}
+
+	protected void write(LogRecord record) {
+		String text;
+		try {
+			text = getFormatter().format(record);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		try {
+			writer.write(text);
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	protected void flushWriter() {
+		long upTo = head;
+		try {
+			writer.flush();
+		}
+		catch (Exception e) {
+			reportError(null, e, ErrorManager.FLUSH_FAILURE);
+		}
+		flushedUpTo = upTo;
+	}
+
+	/**
+	 * Wait until every record published so far has been written out.
+	 * @return false if that didn't happen within the timeout
+	 */
+	public boolean flush(long timeout, TimeUnit unit) {
+		long target = tail.get();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (flushedUpTo < target) {
+			if (!consumer.isAlive()) return false;
+			if (System.nanoTime() - deadline >= 0) return false;
+			LockSupport.unpark(consumer);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		return true;
+	}
+
+	@Override
+	public void flush() {
+		flush(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Flush every AsyncLogHandler.
+	 */
+	public static void flushAll(long timeout, TimeUnit unit) {
+		for (AsyncLogHandler handler: handlers) {
+			handler.flush(timeout, unit);
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		running = false;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		handlers.remove(this);
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * @return how many records were dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return how many records are waiting to be written
+	 */
+	public int getPendingCount() {
+		return (int) (tail.get() - head);
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy, Level dropLevel) {
+		this.overflowPolicy = overflowPolicy;
+		this.dropLevel = dropLevel;
+	}
+
+	private static String property(String name, String defaultValue) {
+		String value = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + "." + name);
+		return value == null ? defaultValue : value;
+	}
+
+	private static int intProperty(String name, int defaultValue) {
+		try {
+			return Integer.parseInt(property(name, String.valueOf(defaultValue)).trim());
+		}
+		catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+}
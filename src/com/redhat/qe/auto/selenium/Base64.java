@@ -905,6 +905,12 @@ public class Base64
         // Else, don't compress. Better not to use streams at all then.
         else {
             boolean breakLines = (options & DO_BREAK_LINES) > 0;
+            
+            // java.util.Base64 produces the same output much faster, except for the
+            // ordered alphabet and url safe output with line breaks
+            if( (options & ORDERED) == 0 && !(breakLines && (options & URL_SAFE) > 0) ) {
+                return jdkEncode( source, off, len, options );
+            }   // end if: jdk can do it
 
             int    len43   = len * 4 / 3;
             byte[] outBuff = new byte[   ( len43 )                      // Main 4:3
@@ -940,6 +946,26 @@ public class Base64
 
     }   // end encodeBytesToBytes
     
+    
+    /**
+     * Encodes like the loop in encodeBytesToBytes, with java.util.Base64.
+     * Line breaks are '\n' every 76 characters, with one more at the end when the
+     * last line is exactly full, as the loop writes them.
+     */
+    private static byte[] jdkEncode( byte[] source, int off, int len, int options ) {
+        byte[] raw = (off == 0 && len == source.length) ? source : java.util.Arrays.copyOfRange( source, off, off + len );
+        if( (options & DO_BREAK_LINES) == 0 ) {
+            java.util.Base64.Encoder encoder = (options & URL_SAFE) > 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+            return encoder.encode( raw );
+        }   // end if: one line
+        byte[] encoded = java.util.Base64.getMimeEncoder( MAX_LINE_LENGTH, new byte[]{ NEW_LINE } ).encode( raw );
+        if( len > 0 && len % ( MAX_LINE_LENGTH / 4 * 3 ) == 0 ) {
+            encoded = java.util.Arrays.copyOf( encoded, encoded.length + 1 );
+            encoded[ encoded.length - 1 ] = NEW_LINE;
+        }   // end if: last line is full
+        return encoded;
+    }   // end jdkEncode
+    
 
     
     
@@ -1112,6 +1138,14 @@ public class Base64
         }   // end if
         
         byte[] DECODABET = getDecodabet( options );
+        
+        // java.util.Base64 decodes plain, unbroken input exactly like the loop below,
+        // and much faster; anything else (white space, stray characters or padding,
+        // the ordered alphabet) is left to the loop
+        if( (options & ORDERED) == 0 && isPlainBase64( source, off, len, DECODABET ) ) {
+            java.util.Base64.Decoder decoder = (options & URL_SAFE) > 0 ? java.util.Base64.getUrlDecoder() : java.util.Base64.getDecoder();
+            return decoder.decode( (off == 0 && len == source.length) ? source : java.util.Arrays.copyOfRange( source, off, off + len ) );
+        }   // end if: jdk can do it
 	
         int    len34   = len * 3 / 4;       // Estimate on array size
         byte[] outBuff = new byte[ len34 ]; // Upper limit on size of output
@@ -1158,6 +1192,29 @@ public class Base64
     }   // end decode
     
     
+    /**
+     * @return true if the len bytes at off are whole quartets of DECODABET characters,
+     * with at most two equals signs of padding at the very end
+     */
+    private static boolean isPlainBase64( byte[] source, int off, int len, byte[] DECODABET ) {
+        if( len % 4 != 0 ) {
+            return false;
+        }   // end if: partial quartet
+        int end = off + len;
+        if( source[end - 1] == EQUALS_SIGN ) {
+            end--;
+            if( source[end - 1] == EQUALS_SIGN ) {
+                end--;
+            }   // end if: two
+        }   // end if: padding
+        for( int i = off; i < end; i++ ) {
+            byte b = source[i];
+            if( b < 0 || DECODABET[ b ] < 0 ) {
+                return false;
+            }   // end if: not a Base64 character
+        }   // end for: each character
+        return true;
+    }   // end isPlainBase64
 	
 	
     /**
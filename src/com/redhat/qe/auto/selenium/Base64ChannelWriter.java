@@ -0,0 +1,143 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Decodes base64 data (eg a screenshot from captureEntirePageScreenshotToString)
+ * straight into a file, a fixed size chunk at a time, without ever holding the
+ * whole decoded image in memory.  The decoded bytes go through a direct ByteBuffer
+ * that is reused by each thread, and are written with a FileChannel.
+ * <p>
+ * Chunks are decoded with the JDK's java.util.Base64 block decoder, which is several
+ * times faster than both the bundled {@link Base64} codec and the JDK's own streaming
+ * decoder (see Base64Benchmark).  Line breaks and other whitespace in the input are skipped.
+ */
+public class Base64ChannelWriter {
+
+	/** base64 characters read per chunk (a multiple of 4) */
+	protected static final int CHUNK_CHARS = 64 * 1024;
+	/** size of the direct buffer the decoded bytes are collected in */
+	protected static final int BUFFER_BYTES = CHUNK_CHARS / 4 * 3;
+
+	private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_BYTES);
+		}
+	};
+	private static final ThreadLocal<byte[]> chunkBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[CHUNK_CHARS];
+		}
+	};
+	private static final ThreadLocal<byte[]> decodedBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[BUFFER_BYTES];
+		}
+	};
+
+	/**
+	 * Decode base64 data into a file, replacing it if it exists.
+	 * @return the number of bytes written
+	 */
+	public static long write(CharSequence base64, File file) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			FileChannel channel = fos.getChannel();
+			long written = write(base64, channel);
+			channel.force(false);
+			return written;
+		}
+		finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Decode base64 data into a channel.  The channel is not closed.
+	 * @return the number of bytes written
+	 */
+	public static long write(CharSequence base64, WritableByteChannel channel) throws IOException {
+		ChannelOutputStream out = new ChannelOutputStream(channel, directBuffer.get());
+		java.util.Base64.Decoder decoder = java.util.Base64.getDecoder();
+		byte[] chunk = chunkBuffer.get();
+		byte[] decoded = decodedBuffer.get();
+		int length = base64.length();
+		int chunkLength = 0;
+		try {
+			for (int i = 0; i < length; i++) {
+				char c = base64.charAt(i);
+				if (c <= ' ') continue;  // line breaks, whitespace
+				chunk[chunkLength++] = (byte) c;
+				if (chunkLength == CHUNK_CHARS) {
+					out.write(decoded, 0, decoder.decode(chunk, decoded));
+					chunkLength = 0;
+				}
+			}
+			if (chunkLength > 0) {
+				out.write(decoded, 0, decoder.decode(Arrays.copyOf(chunk, chunkLength), decoded));
+			}
+		}
+		catch (IllegalArgumentException iae) {
+			throw new IOException("Invalid base64 data: " + iae.getMessage(), iae);
+		}
+		out.close();  // drains the buffer, but leaves the channel open
+		return out.written;
+	}
+
+	/**
+	 * Collects bytes in a ByteBuffer and writes it to the channel whenever it fills up.
+	 */
+	protected static class ChannelOutputStream extends OutputStream {
+		protected final WritableByteChannel channel;
+		protected final ByteBuffer buffer;
+		protected long written = 0;
+
+		protected ChannelOutputStream(WritableByteChannel channel, ByteBuffer buffer) {
+			this.channel = channel;
+			this.buffer = buffer;
+			buffer.clear();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!buffer.hasRemaining()) drain();
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!buffer.hasRemaining()) drain();
+				int n = Math.min(len, buffer.remaining());
+				buffer.put(bytes, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			drain();
+		}
+
+		@Override
+		public void close() throws IOException {
+			drain();
+		}
+
+		protected void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
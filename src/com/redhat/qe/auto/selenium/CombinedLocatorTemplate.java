@@ -7,20 +7,55 @@ import java.util.regex.Pattern;
  * A CombinedLocatorTemplate is used to create a higher level LocatorStrategy
  * that re-uses multiple LocatorTemplates.  Basically this concatenates the selenium
  * locator template for multiple LocatorTemplates into a single LocatorStrategy.
+ * When every combined strategy has a fixed template (plain LocatorTemplates, 
+ * StringSandwichLocatorStrategies, or other such CombinedLocatorTemplates), the 
+ * combined template is built and compiled once at construction.  Otherwise 
+ * (eg a LocatorSandwich, whose template depends on the args) it is rebuilt on
+ * every call.
  *
  * @author jsefler
  */
 public class CombinedLocatorTemplate extends LocatorTemplate {
 	
+	private static final Pattern ARG_PATTERN = Pattern.compile("\\$(\\d+)");
+	
 	protected LocatorStrategy[] locatorStrategies = null;
 	
 	public CombinedLocatorTemplate(String name, LocatorStrategy... locatorStrategies) {
 		super(name, "");  // initialize the name (set the template at the end)
 		this.locatorStrategies = locatorStrategies;
+		
+		boolean staticTemplate = true;
+		for (LocatorStrategy locatorStrategy : locatorStrategies) {
+			staticTemplate &= hasStaticTemplate(locatorStrategy);
+		}
+		if (staticTemplate) {
+			this.template = combineTemplates();
+			this.compiledTemplate = new CompiledTemplate(this.template);
+		}
+		else {
+			this.template = null;
+			this.compiledTemplate = null;
+		}
 	}
 	
 	@Override
 	public String getTemplate(String... args) {
+		if (template != null) return template;  // flattened at construction
+		return combineTemplates(args);
+	}
+	
+	/**
+	 * @return true if the strategy's template does not depend on the args passed to getTemplate
+	 */
+	protected static boolean hasStaticTemplate(LocatorStrategy locatorStrategy) {
+		Class<?> strategyClass = locatorStrategy.getClass();
+		if (strategyClass == LocatorTemplate.class || strategyClass == StringSandwichLocatorStrategy.class) return true;
+		if (strategyClass == CombinedLocatorTemplate.class) return ((CombinedLocatorTemplate) locatorStrategy).template != null;
+		return false;
+	}
+	
+	protected String combineTemplates(String... args) {
 		// construct the combined template
 		StringBuffer combinedTemplate = new StringBuffer();
 		int numArgsInPriorLocatorStrategy =0;
@@ -53,8 +88,7 @@ public class CombinedLocatorTemplate extends LocatorTemplate {
 	}
 	
 	protected static String increment(int count, String template){
-		Pattern p = Pattern.compile("\\$(\\d+)");
-		Matcher m = p.matcher(template);
+		Matcher m = ARG_PATTERN.matcher(template);
 		while (m.find()){
 			int num = Integer.parseInt(m.group(1));
 			int newNum = num + count;
@@ -70,6 +104,10 @@ public class CombinedLocatorTemplate extends LocatorTemplate {
 		System.out.println(CombinedLocatorTemplate.countArgs("//s[@id='$1' a$3rd @class='$2' or '$2 *']"));
 		System.out.println(CombinedLocatorTemplate.increment(3, "//s[@id='$1' a$3rd @class='$2']"));
 		System.out.println(CombinedLocatorTemplate.increment(3,"//s[@id='$1' a$3rd @class='$2' or '$2 *']"));
+		UILocatorStrategies ui = new UILocatorStrategies();
+		System.out.println(ui.div_span.getTemplate() + " -> " + ui.div_span.getLocator("outer", "inner"));
+		LocatorStrategy dynamic = new CombinedLocatorTemplate("sandwich_link", new LocatorSandwich("or", "//*[", " or ", "]"), ui.link);
+		System.out.println(dynamic.getTemplate("a", "b") + " -> " + dynamic.getLocator("a", "b"));
 	}
 	
 }
@@ -0,0 +1,220 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects per-command latency and payload statistics for the selenium RC
+ * commands sent through a {@link MetricsCommandProcessor}.  Latencies are kept
+ * in a fixed size log-linear histogram (microsecond resolution, ~12% bucket error),
+ * so recording a command does not allocate once the command name has been seen.
+ *
+ * Use {@link #snapshot()} to get a consistent-enough copy of the numbers
+ * for reporting.
+ */
+public class CommandMetrics {
+
+	protected ConcurrentMap<String, CommandHistogram> histograms = new ConcurrentHashMap<String, CommandHistogram>();
+
+	/**
+	 * Record one completed command.
+	 * @param command - the selenium RC command name, eg "click", "getEval"
+	 * @param nanos - how long the round trip took
+	 * @param bytesSent - approximate size of the command and its arguments
+	 * @param bytesReceived - approximate size of the result
+	 */
+	public void record(String command, long nanos, long bytesSent, long bytesReceived) {
+		CommandHistogram histogram = histograms.get(command);
+		if (histogram == null) {
+			CommandHistogram newHistogram = new CommandHistogram();
+			histogram = histograms.putIfAbsent(command, newHistogram);
+			if (histogram == null) histogram = newHistogram;
+		}
+		histogram.record(nanos / 1000, bytesSent, bytesReceived);
+	}
+
+	/**
+	 * @return the total number of commands recorded so far
+	 */
+	public long getTotalCount() {
+		long total = 0;
+		for (CommandHistogram histogram: histograms.values()) {
+			total += histogram.count.get();
+		}
+		return total;
+	}
+
+	public void reset() {
+		histograms.clear();
+	}
+
+	/**
+	 * @return a copy of the statistics for every command seen so far,
+	 * sorted by total time spent (most expensive first).
+	 */
+	public Snapshot snapshot() {
+		List<CommandStatistics> stats = new ArrayList<CommandStatistics>();
+		for (java.util.Map.Entry<String, CommandHistogram> entry: histograms.entrySet()) {
+			stats.add(entry.getValue().toStatistics(entry.getKey()));
+		}
+		Collections.sort(stats, new Comparator<CommandStatistics>() {
+			public int compare(CommandStatistics s1, CommandStatistics s2) {
+				return Long.valueOf(s2.getTotalMicros()).compareTo(s1.getTotalMicros());
+			}
+		});
+		return new Snapshot(stats);
+	}
+
+	/**
+	 * An immutable copy of the statistics of all commands.
+	 */
+	public static class Snapshot {
+		private final List<CommandStatistics> commands;
+
+		protected Snapshot(List<CommandStatistics> commands) {
+			this.commands = Collections.unmodifiableList(commands);
+		}
+
+		public List<CommandStatistics> getCommands() {
+			return commands;
+		}
+
+		public CommandStatistics get(String command) {
+			for (CommandStatistics stats: commands) {
+				if (stats.getCommand().equals(command)) return stats;
+			}
+			return null;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("%-32s %8s %10s %10s %10s %10s %12s %12s%n",
+					"command", "count", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)", "sent(B)", "recv(B)"));
+			for (CommandStatistics stats: commands) {
+				sb.append(stats.toString()).append(String.format("%n"));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * An immutable copy of the statistics of a single command.  Times are in microseconds.
+	 */
+	public static class CommandStatistics {
+		private final String command;
+		private final long count;
+		private final long totalMicros;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long max;
+		private final long bytesSent;
+		private final long bytesReceived;
+
+		protected CommandStatistics(String command, long count, long totalMicros, long p50, long p90, long p99,
+				long max, long bytesSent, long bytesReceived) {
+			this.command = command;
+			this.count = count;
+			this.totalMicros = totalMicros;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+		}
+
+		public String getCommand() { return command; }
+		public long getCount() { return count; }
+		public long getTotalMicros() { return totalMicros; }
+		public long getP50Micros() { return p50; }
+		public long getP90Micros() { return p90; }
+		public long getP99Micros() { return p99; }
+		public long getMaxMicros() { return max; }
+		public long getBytesSent() { return bytesSent; }
+		public long getBytesReceived() { return bytesReceived; }
+
+		public String toString() {
+			return String.format("%-32s %8d %10.1f %10.1f %10.1f %10.1f %12d %12d", command, count,
+					p50 / 1000.0, p90 / 1000.0, p99 / 1000.0, max / 1000.0, bytesSent, bytesReceived);
+		}
+	}
+
+	/**
+	 * Lock free log-linear histogram.  Values below 8 get their own bucket, above that
+	 * each power of two is split in 8 sub-buckets.
+	 */
+	protected static class CommandHistogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicLong bytesSent = new AtomicLong();
+		private final AtomicLong bytesReceived = new AtomicLong();
+
+		protected void record(long micros, long sent, long received) {
+			if (micros < 0) micros = 0;
+			buckets.incrementAndGet(bucketOf(micros));
+			count.incrementAndGet();
+			total.addAndGet(micros);
+			bytesSent.addAndGet(sent);
+			bytesReceived.addAndGet(received);
+			long currentMax = max.get();
+			while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+				currentMax = max.get();
+			}
+		}
+
+		protected static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+			return ((exponent + 1) << SUB_BUCKET_BITS) + subBucket;
+		}
+
+		/**
+		 * @return the largest value that falls in the given bucket
+		 */
+		protected static long upperBoundOf(int bucket) {
+			if (bucket < SUB_BUCKETS) return bucket;
+			int exponent = (bucket >>> SUB_BUCKET_BITS) - 1;
+			long subBucket = (bucket & (SUB_BUCKETS - 1)) | SUB_BUCKETS;
+			return ((subBucket + 1) << exponent) - 1;
+		}
+
+		protected CommandStatistics toStatistics(String command) {
+			long[] copy = new long[BUCKETS];
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				copy[i] = buckets.get(i);
+				n += copy[i];
+			}
+			long maxValue = max.get();
+			return new CommandStatistics(command, n, total.get(),
+					percentile(copy, n, 0.50, maxValue), percentile(copy, n, 0.90, maxValue),
+					percentile(copy, n, 0.99, maxValue), maxValue,
+					bytesSent.get(), bytesReceived.get());
+		}
+
+		private static long percentile(long[] counts, long n, double fraction, long maxValue) {
+			if (n == 0) return 0;
+			long rank = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) return Math.min(upperBoundOf(i), maxValue);
+			}
+			return maxValue;
+		}
+	}
+}
@@ -1,49 +1,47 @@
 package com.redhat.qe.auto.selenium;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.logging.Formatter;
+import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
-import com.redhat.qe.jul.TestRecords;
-
 
 /**
- * A Formatter for java logging, to print nice timestamped 
+ * A Formatter for java logging, to print nice timestamped
  * lines to stdout/stderr.
+ * <p>
+ * By default the line ends with the source class and method, which LogRecord finds
+ * by walking the stack unless the code that logged gave them explicitly.  With
+ * inferSource off (com.redhat.qe.auto.selenium.ConsoleLogFormatter.inferSource = false
+ * in the logging properties), the stack is never walked: records with an explicit
+ * source (see SourcedLogRecord, eg ExtendedSelenium's actions) still show it, the
+ * others show their logger name.
  * @author jweiss
  *
  */
-public class ConsoleLogFormatter extends Formatter {
+public class ConsoleLogFormatter extends TimestampedLogFormatter {
+
+	protected final boolean inferSource;
+
+	public ConsoleLogFormatter() {
+		this(!"false".equalsIgnoreCase(LogManager.getLogManager().getProperty(ConsoleLogFormatter.class.getName() + ".inferSource")));
+	}
+
+	/**
+	 * @param inferSource - if false, never walk the stack to find a record's source
+	 */
+	public ConsoleLogFormatter(boolean inferSource) {
+		this.inferSource = inferSource;
+	}
 
-	private static final DateFormat sdf = new SimpleDateFormat("yyyyMMddHHmm:ss.SSS");
-	
-	
 	@Override
-	public String format(LogRecord record) {
-		String date = sdf.format(new Date(record.getMillis()));
-		String throwable = "";
-		String message = record.getMessage();
-		if (record.getThrown() != null) throwable = throwableToString(record.getThrown())  + "\n";
-		if (record.getParameters() != null)
-			for (Object param: record.getParameters()){
-				if (param.equals(TestRecords.Style.Banner))
-					message = "======= " + message;
-			}
-		
-		return date + " - " + record.getLevel() + ": " + message + " (" + record.getSourceClassName() + "." 
-		+ record.getSourceMethodName() + ")\n" + throwable;
+	protected void appendSource(StringBuilder sb, LogRecord record) {
+		if (inferSource || (record instanceof SourcedLogRecord && ((SourcedLogRecord) record).hasExplicitSource())) {
+			sb.append(record.getSourceClassName()).append('.').append(record.getSourceMethodName());
+		}
+		else sb.append(record.getLoggerName());
 	}
 
-	
-	protected String throwableToString(Throwable t){
-		StringWriter sw = new StringWriter();
-		PrintWriter pw = new PrintWriter(sw);
-		t.printStackTrace(pw);
-		return sw.toString();
+	@Override
+	public boolean needsSource() {
+		return inferSource;
 	}
 }
-
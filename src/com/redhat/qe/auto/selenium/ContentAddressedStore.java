@@ -0,0 +1,216 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores screenshots and html captures by content, so that identical captures (retried
+ * or data driven tests failing the same way) take up disk space only once.  Each artifact
+ * is hashed while it is being written, the content is kept once under
+ * &lt;dir&gt;/.blobs/xx/&lt;sha1&gt;.&lt;ext&gt;, and the requested file name becomes a
+ * hard link to it (or a symbolic link, or as a last resort a copy, if the file system
+ * can't do hard links).
+ */
+public class ContentAddressedStore {
+
+	private static Logger log = Logger.getLogger(ContentAddressedStore.class.getName());
+	private static final ConcurrentMap<File, ContentAddressedStore> stores = new ConcurrentHashMap<File, ContentAddressedStore>();
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Writes the content of an artifact.
+	 */
+	public interface Content {
+		public void writeTo(WritableByteChannel channel) throws IOException;
+	}
+
+	protected final File blobDir;
+	protected final AtomicLong stored = new AtomicLong();
+	protected final AtomicLong deduplicated = new AtomicLong();
+
+	public ContentAddressedStore(File dir) {
+		this.blobDir = new File(dir, ".blobs");
+	}
+
+	/**
+	 * @return the store for artifacts written to this directory
+	 */
+	public static ContentAddressedStore forDirectory(File dir) {
+		File key = dir.getAbsoluteFile();
+		ContentAddressedStore store = stores.get(key);
+		if (store == null) {
+			ContentAddressedStore newStore = new ContentAddressedStore(key);
+			store = stores.putIfAbsent(key, newStore);
+			if (store == null) store = newStore;
+		}
+		return store;
+	}
+
+	/**
+	 * Write an artifact to the store, and make target point at it.
+	 * @return target
+	 */
+	public File store(File target, Content content) throws IOException {
+		blobDir.mkdirs();
+		File tmp = File.createTempFile("artifact", ".tmp", blobDir);
+		try {
+			String hash;
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				DigestChannel channel = new DigestChannel(fos.getChannel());
+				content.writeTo(channel);
+				hash = channel.getHexDigest();
+			}
+			finally {
+				fos.close();
+			}
+
+			File blob = blobFor(hash, extensionOf(target));
+			blob.getParentFile().mkdirs();
+			if (publish(tmp.toPath(), blob.toPath())) {
+				stored.incrementAndGet();
+			}
+			else {
+				deduplicated.incrementAndGet();
+				log.log(Level.FINER, target.getName() + " is identical to " + blob.getName());
+			}
+			link(target.toPath(), blob.toPath());
+			return target;
+		}
+		finally {
+			tmp.delete();  // whatever happened, the temp file is not needed any more
+		}
+	}
+
+	/**
+	 * Make the written temp file the blob, unless the blob already exists (eg another
+	 * thread stored the same content meanwhile).  Unlike a rename, neither way of doing
+	 * it replaces an existing blob.
+	 * @return false if the blob already existed
+	 */
+	protected boolean publish(Path tmp, Path blob) throws IOException {
+		if (Files.exists(blob)) return false;
+		try {
+			Files.createLink(blob, tmp);
+			return true;
+		}
+		catch (FileAlreadyExistsException e) {
+			return false;
+		}
+		catch (IOException e) {
+			log.log(Level.FINEST, "Could not hard link " + blob + ", moving it.", e);
+		}
+		catch (UnsupportedOperationException e) {
+			log.log(Level.FINEST, "Could not hard link " + blob + ", moving it.", e);
+		}
+		try {
+			Files.move(tmp, blob);
+			return true;
+		}
+		catch (FileAlreadyExistsException e) {
+			return false;
+		}
+	}
+
+	public long getStoredCount() {
+		return stored.get();
+	}
+
+	public long getDeduplicatedCount() {
+		return deduplicated.get();
+	}
+
+	protected File blobFor(String hash, String extension) {
+		return new File(new File(blobDir, hash.substring(0, 2)), hash + extension);
+	}
+
+	protected void link(Path target, Path blob) throws IOException {
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, blob);
+			return;
+		}
+		catch (IOException e) {
+			log.log(Level.FINEST, "Could not hard link " + target + ", trying a symbolic link.", e);
+		}
+		catch (UnsupportedOperationException e) {
+			log.log(Level.FINEST, "Could not hard link " + target + ", trying a symbolic link.", e);
+		}
+		try {
+			Files.createSymbolicLink(target, target.toAbsolutePath().getParent().relativize(blob.toAbsolutePath()));
+			return;
+		}
+		catch (IOException e) {
+			log.log(Level.FINEST, "Could not symbolic link " + target + ", copying it.", e);
+		}
+		catch (UnsupportedOperationException e) {
+			log.log(Level.FINEST, "Could not symbolic link " + target + ", copying it.", e);
+		}
+		Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String extensionOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? "" : name.substring(dot);
+	}
+
+	/**
+	 * A channel that hashes everything written through it.
+	 */
+	protected static class DigestChannel implements WritableByteChannel {
+		protected final FileChannel channel;
+		protected final MessageDigest digest;
+
+		protected DigestChannel(FileChannel channel) {
+			this.channel = channel;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-1");
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			ByteBuffer toHash = src.duplicate();
+			int written = channel.write(src);
+			toHash.limit(toHash.position() + written);
+			digest.update(toHash);
+			return written;
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		protected String getHexDigest() {
+			byte[] bytes = digest.digest();
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+			}
+			return new String(hex);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation has to be done, measured with
+ * System.nanoTime() so it isn't affected by clock changes.  ExtendedSelenium
+ * uses one as the time budget of a step: every wait in the step gets at most
+ * what is left of it.
+ */
+public class Deadline {
+
+	protected final long expiresAt;
+	protected final long budgetMillis;
+
+	protected Deadline(long expiresAt, long budgetMillis) {
+		this.expiresAt = expiresAt;
+		this.budgetMillis = budgetMillis;
+	}
+
+	/**
+	 * @return a deadline amount from now
+	 */
+	public static Deadline after(long amount, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(amount), unit.toMillis(amount));
+	}
+
+	/**
+	 * @return the time left, 0 if the deadline has passed
+	 */
+	public long remaining(TimeUnit unit) {
+		return Math.max(0, unit.convert(expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS));
+	}
+
+	public boolean isExpired() {
+		return expiresAt - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @return whichever of this and other expires first (this if other is null)
+	 */
+	public Deadline earliest(Deadline other) {
+		if (other == null || expiresAt - other.expiresAt <= 0) return this;
+		return other;
+	}
+
+	/**
+	 * @return timeoutMillis, or the time left if that is less
+	 */
+	public long clamp(long timeoutMillis) {
+		return Math.min(timeoutMillis, remaining(TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * @return how long the budget was when the deadline was set
+	 */
+	public long getBudgetMillis() {
+		return budgetMillis;
+	}
+
+	@Override
+	public String toString() {
+		return remaining(TimeUnit.MILLISECONDS) + "ms left of " + budgetMillis + "ms";
+	}
+}
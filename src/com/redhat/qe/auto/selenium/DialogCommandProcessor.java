@@ -0,0 +1,119 @@
+package com.redhat.qe.auto.selenium;
+
+import com.thoughtworks.selenium.CommandProcessor;
+
+/**
+ * A CommandProcessor decorator that gives a PopUpHandler the chance to deal with
+ * dialogs right before a command is sent, on the thread sending it, so the handler
+ * never uses the session at the same time as the test.  The handler's own commands
+ * go straight to the delegate.  Commands about dialogs (getAlert, isConfirmationPresent,
+ * answerOnNextPrompt ...) are left alone, the test is handling those itself.
+ * ExtendedSelenium puts one under its MetricsCommandProcessor.
+ */
+public class DialogCommandProcessor implements CommandProcessor {
+
+	protected final CommandProcessor delegate;
+	protected volatile PopUpHandler handler = null;
+
+	public DialogCommandProcessor(CommandProcessor delegate) {
+		this.delegate = delegate;
+	}
+
+	public CommandProcessor getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @param handler - the handler to call before each command, or null for none
+	 */
+	public void setHandler(PopUpHandler handler) {
+		this.handler = handler;
+	}
+
+	public PopUpHandler getHandler() {
+		return handler;
+	}
+
+	protected void beforeCommand(String commandName) {
+		PopUpHandler current = handler;
+		if (current == null || isDialogCommand(commandName)) return;
+		current.beforeCommand(delegate);
+	}
+
+	protected static boolean isDialogCommand(String commandName) {
+		return commandName.indexOf("Alert") >= 0 || commandName.indexOf("Confirmation") >= 0
+			|| commandName.indexOf("Prompt") >= 0;
+	}
+
+	@Override
+	public String getRemoteControlServerLocation() {
+		return delegate.getRemoteControlServerLocation();
+	}
+
+	@Override
+	public String doCommand(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.doCommand(commandName, args);
+	}
+
+	@Override
+	public void setExtensionJs(String extensionJs) {
+		delegate.setExtensionJs(extensionJs);
+	}
+
+	@Override
+	public void start() {
+		delegate.start();
+	}
+
+	@Override
+	public void start(String optionsString) {
+		delegate.start(optionsString);
+	}
+
+	@Override
+	public void start(Object optionsObject) {
+		delegate.start(optionsObject);
+	}
+
+	@Override
+	public void stop() {
+		delegate.stop();
+	}
+
+	@Override
+	public String getString(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getString(commandName, args);
+	}
+
+	@Override
+	public String[] getStringArray(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getStringArray(commandName, args);
+	}
+
+	@Override
+	public Number getNumber(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getNumber(commandName, args);
+	}
+
+	@Override
+	public Number[] getNumberArray(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getNumberArray(commandName, args);
+	}
+
+	@Override
+	public boolean getBoolean(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getBoolean(commandName, args);
+	}
+
+	@Override
+	public boolean[] getBooleanArray(String commandName, String[] args) {
+		beforeCommand(commandName);
+		return delegate.getBooleanArray(commandName, args);
+	}
+}
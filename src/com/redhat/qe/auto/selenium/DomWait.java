@@ -0,0 +1,83 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds waitForCondition scripts that only re-evaluate their condition when the
+ * page has changed.  The first poll installs a MutationObserver on the document
+ * that marks the wait dirty whenever the DOM changes; later polls just look at that
+ * flag, so an expensive locator (eg a big xpath) is evaluated once per change rather
+ * than on every poll.  The condition is also re-checked every RECHECK_MS, for changes
+ * no observer sees (css transitions, a resized window).  Browsers without
+ * MutationObserver evaluate the condition on every poll, like a plain waitForCondition.
+ * <p>
+ * A condition that throws because an element is not found (yet) is just false; any
+ * other error, eg an invalid xpath, fails the wait at once, as with waitForCondition.
+ * <p>
+ * The observer is kept on the document, so a page load simply starts over.  Call
+ * {@link #cleanupScript(String)} with getEval if a wait times out.
+ */
+public class DomWait {
+
+	protected static final int RECHECK_MS = 500;
+	private static final AtomicLong waitCounter = new AtomicLong();
+
+	/**
+	 * @return a key that identifies one wait in the page
+	 */
+	public static String nextKey() {
+		return "w" + waitCounter.incrementAndGet();
+	}
+
+	/**
+	 * @param key - from nextKey()
+	 * @param condition - javascript expression, eg selenium.isVisible("id=foo")
+	 * @return a script for waitForCondition that is true once condition is
+	 */
+	public static String conditionScript(String key, String condition) {
+		return "var doc = selenium.browserbot.getDocument(); " +
+			"var win = selenium.browserbot.getCurrentWindow(); " +
+			"var waits = doc.extendedSeleniumWaits || (doc.extendedSeleniumWaits = {}); " +
+			"var state = waits['" + key + "']; " +
+			"if (!state) { " +
+				"state = waits['" + key + "'] = { dirty: true, done: false, checked: 0 }; " +
+				"var Observer = win.MutationObserver || win.WebKitMutationObserver; " +
+				"if (Observer) { " +
+					"state.observer = new Observer(function() { state.dirty = true; }); " +
+					"state.observer.observe(doc, { childList: true, subtree: true, attributes: true, characterData: true }); " +
+				"} " +
+			"} " +
+			"var now = new Date().getTime(); " +
+			"if (!state.observer || state.dirty || now - state.checked > " + RECHECK_MS + ") { " +
+				"state.dirty = false; " +
+				"state.checked = now; " +
+				"try { state.done = !!(" + condition + "); } " +
+				"catch (e) { " +
+					// only a missing element means "not yet", a bad locator or script fails right away
+					"if (!/not found/.test(e.message || String(e))) { " +
+						"if (state.observer) state.observer.disconnect(); " +
+						"delete waits['" + key + "']; " +
+						"throw e; " +
+					"} " +
+					"state.done = false; " +
+				"} " +
+			"} " +
+			"if (state.done) { " +
+				"if (state.observer) state.observer.disconnect(); " +
+				"delete waits['" + key + "']; " +
+			"} " +
+			"state.done;";
+	}
+
+	/**
+	 * @return a script for getEval that removes the observer of a wait that timed out
+	 */
+	public static String cleanupScript(String key) {
+		return "var waits = selenium.browserbot.getDocument().extendedSeleniumWaits; " +
+			"if (waits && waits['" + key + "']) { " +
+				"if (waits['" + key + "'].observer) waits['" + key + "'].observer.disconnect(); " +
+				"delete waits['" + key + "']; " +
+			"} " +
+			"'';";
+	}
+}
@@ -0,0 +1,104 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches element attributes (as returned by ExtendedSelenium.getAttributes) by locator,
+ * for as long as the browser stays on the same page.  ExtendedSelenium only uses them
+ * to describe elements in its logs (getElementType), getAttributes always asks the
+ * browser, as cached attributes don't see changes made by scripts or ajax updates.  Every navigation (open, page load,
+ * refresh, back, switching window or frame) advances the page epoch, which throws away
+ * everything cached so far.  Optionally any action that may change the DOM (click, type,
+ * etc) also advances the epoch.
+ */
+public class ElementAttributeCache {
+
+	protected ConcurrentMap<String, Properties> attributes = new ConcurrentHashMap<String, Properties>();
+	protected AtomicLong epoch = new AtomicLong();
+	protected AtomicLong hits = new AtomicLong();
+	protected AtomicLong misses = new AtomicLong();
+	protected volatile boolean enabled = true;
+	protected volatile boolean invalidateOnMutation = false;
+
+	/**
+	 * @return a copy of the cached attributes for this locator, or null if they
+	 * are not cached for the current page.
+	 */
+	public Properties get(String locator) {
+		if (!enabled) return null;
+		Properties cached = attributes.get(locator);
+		if (cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return (Properties) cached.clone();
+	}
+
+	/**
+	 * Cache the attributes of an element.
+	 * @param fetchedInEpoch - the epoch (see {@link #getEpoch()}) when the attributes
+	 *  were requested from the browser.  If the page has changed since, they are not cached.
+	 */
+	public void put(String locator, Properties attrs, long fetchedInEpoch) {
+		if (!enabled || fetchedInEpoch != epoch.get()) return;
+		attributes.put(locator, (Properties) attrs.clone());
+	}
+
+	/**
+	 * The browser has navigated to another page, or switched window/frame.
+	 */
+	public void nextEpoch() {
+		epoch.incrementAndGet();
+		attributes.clear();
+	}
+
+	/**
+	 * The page may have been changed by an action.  Only advances the epoch if
+	 * invalidateOnMutation is set.
+	 */
+	public void mutated() {
+		if (invalidateOnMutation) nextEpoch();
+	}
+
+	public long getEpoch() {
+		return epoch.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void resetCounters() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) attributes.clear();
+	}
+
+	public boolean isInvalidateOnMutation() {
+		return invalidateOnMutation;
+	}
+
+	public void setInvalidateOnMutation(boolean invalidateOnMutation) {
+		this.invalidateOnMutation = invalidateOnMutation;
+	}
+
+	public String toString() {
+		return "epoch=" + getEpoch() + ", hits=" + getHits() + ", misses=" + getMisses();
+	}
+}
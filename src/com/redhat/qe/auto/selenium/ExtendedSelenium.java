@@ -8,19 +8,31 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
-import java.text.DateFormat;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import com.redhat.qe.jul.TestRecords;
 import com.thoughtworks.selenium.CommandProcessor;
 import com.thoughtworks.selenium.DefaultSelenium;
+import com.thoughtworks.selenium.HttpCommandProcessor;
 import com.thoughtworks.selenium.SeleniumException;
 
 /**
@@ -37,36 +49,145 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 */
 	private static final long serialVersionUID = -4832886620261520916L;
 
-	private static ExtendedSelenium instance = null;
+	private static volatile ExtendedSelenium instance = null;
+	private static final ThreadLocal<ExtendedSelenium> threadInstance = new ThreadLocal<ExtendedSelenium>();
 	
-	private static Logger log = Logger.getLogger(ExtendedSelenium.class.getName());
-	private static File screenshotDir = null;
-	private static File localHtmlDir = null;
+	private static final String CLASS_NAME = ExtendedSelenium.class.getName();
+	private static Logger log = Logger.getLogger(CLASS_NAME);
 	private static final DecimalFormat numFormat = new DecimalFormat("##0.#");
 	protected static final String DEFAULT_WAITFORPAGE_TIMEOUT = "60000";
+	/** the page timeout sessions start with, see setTimeout */
 	protected static String WAITFORPAGE_TIMEOUT = DEFAULT_WAITFORPAGE_TIMEOUT;
-	private DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmssS");
 	protected String ajaxFinishedCondition = null;
 	public static final String JQUERY_AJAX_FINISHED_CONDITION = 
 			"try { selenium.browserbot.getCurrentWindow().jQuery.active == 0 } catch (e) { false }";
 	public static final String PROTOTYPE_AJAX_FINISHED_CONDITION = "selenium.browserbot.getCurrentWindow().Ajax.activeRequestCount == 0";
 	public static final String DOJO_AJAX_FINISHED_CONDITION = "selenium.browserbot.getCurrentWindow().dojo.io.XMLHTTPTransport.inFlight.length == 0";
 	
+	/**
+	 * When true, logged actions (click, type, select, check/uncheck) send a single script 
+	 * to the browser that looks up the element's description, highlights it and performs 
+	 * the action, instead of one RC round trip for each of those steps.
+	 */
+	protected boolean fusedActions = Boolean.getBoolean("selenium.fused.actions");
+	
+	/**
+	 * When true, element descriptions in the logs are just the locator, and no 
+	 * browser calls are made to find out the element's type.
+	 */
+	protected boolean cheapDescriptions = false;
+	
+	protected ElementAttributeCache attributeCache = new ElementAttributeCache();
+	
+	protected volatile boolean started = false;
+	protected volatile long startTime = 0;
+	/** the pool this session is leased from, if any, told when the session is stopped */
+	protected volatile SessionPool pool = null;
+	
+	/**
+	 * When true, screenshots and html captures are decoded and written to disk on
+	 * a background thread (see AsyncArtifactWriter), only fetching them from the 
+	 * browser happens on the test thread.  screenCapture and testNGScreenCapture still
+	 * wait for their screenshot, they return where it was written.
+	 */
+	protected boolean asyncArtifacts = Boolean.getBoolean("selenium.async.artifacts");
+	/** this session's writes queued on the AsyncArtifactWriter, that stop() waits for */
+	protected Queue<Future<File>> pendingArtifacts = new ConcurrentLinkedQueue<Future<File>>();
+	
+	/**
+	 * If set, a screenshot is kept in memory after every action, and the frames
+	 * leading up to a failure are written out by testNGScreenCapture.
+	 */
+	protected ScreenshotRing screenshotRing = null;
+	
+	/**
+	 * When true, identical screenshots and html captures are stored only once 
+	 * (see ContentAddressedStore), the individual file names are links to the content.
+	 */
+	protected boolean dedupArtifacts = Boolean.getBoolean("selenium.dedup.artifacts");
+	
+	/**
+	 * Directories and file names of this session's screenshots and html captures.
+	 */
+	protected SessionArtifacts artifacts = new SessionArtifacts();
+	
+	/**
+	 * When true, waitForElement, waitForVisible, waitForInvisible and waitAndClick 
+	 * re-evaluate their locator only when the DOM changes (see DomWait), instead of 
+	 * on every poll.
+	 */
+	protected boolean mutationWaits = Boolean.getBoolean("selenium.mutation.waits");
+	
+	/**
+	 * When true, ajaxWait waits until the page has no network requests in flight (see 
+	 * RequestTracker), whatever framework it uses, and doesn't wait at all after a fused 
+	 * action that started no request.
+	 */
+	protected boolean trackRequests = Boolean.getBoolean("selenium.track.requests");
+	protected long requestIdleMillis = Long.getLong("selenium.request.idle.ms", 0);
+	/** the command count right after a fused action that started no request, or -1 */
+	protected long quietAfterCommand = -1;
+	
+	/**
+	 * When true, html captures are written gzip compressed (.html.gz), and fetched from
+	 * the browser in slices of htmlSliceChars characters, so a big page is never held
+	 * in a single String.
+	 */
+	protected boolean compressHtml = Boolean.getBoolean("selenium.compress.html");
+	protected int htmlSliceChars = Integer.getInteger("selenium.html.slice.chars", 256 * 1024);
+	
+	/** this session's page load timeout, in milliseconds */
+	protected volatile String pageTimeout = WAITFORPAGE_TIMEOUT;
+	
+	/**
+	 * Time budget of the current step, if any: no wait may run past it (see beginBudget).
+	 */
+	protected volatile Deadline budget = null;
 
 	public ExtendedSelenium(CommandProcessor processor) {
-		super(processor);
+		super(wrap(processor));
 
 	}
+	
+	/**
+	 * @return processor under a MetricsCommandProcessor, with a DialogCommandProcessor 
+	 * between them (for PopUpHandler)
+	 */
+	private static MetricsCommandProcessor wrap(CommandProcessor processor) {
+		MetricsCommandProcessor metrics = processor instanceof MetricsCommandProcessor ? 
+				(MetricsCommandProcessor) processor : new MetricsCommandProcessor(processor);
+		if (!(metrics.delegate instanceof DialogCommandProcessor)) {
+			metrics.delegate = new DialogCommandProcessor(metrics.delegate);
+		}
+		return metrics;
+	}
 
 	public ExtendedSelenium(String serverHost, int serverPort,
 			String browserStartCommand, String browserURL) {
-		super(serverHost, serverPort, browserStartCommand, browserURL);
+		this(new HttpCommandProcessor(serverHost, serverPort, browserStartCommand, browserURL));
+	}
+	
+	/**
+	 * @return the latency statistics of every selenium RC command sent by this instance
+	 */
+	public CommandMetrics getCommandMetrics() {
+		return ((MetricsCommandProcessor) commandProcessor).getMetrics();
+	}
+	
+	/**
+	 * @return the processor through which a PopUpHandler polls for dialogs between this 
+	 * session's commands
+	 */
+	protected DialogCommandProcessor getDialogProcessor() {
+		return (DialogCommandProcessor) ((MetricsCommandProcessor) commandProcessor).getDelegate();
 	}
 
 	@Override
 	public void start() {
 		log.finer("Start selenium.");
 		super.start();
+		started = true;
+		startTime = System.currentTimeMillis();
 
 		windowFocus();
 		String delay = System.getProperty("selenium.delay");
@@ -84,10 +205,19 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	@Override
 	public void stop() {
 		log.finer("Stop selenium.");
+		started = false;
 		super.stop();
+		if (asyncArtifacts) AsyncArtifactWriter.getShared().flush(pendingArtifacts, 30, TimeUnit.SECONDS);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Selenium command statistics:\n" + getCommandMetrics().snapshot());
+		}
+		AsyncLogHandler.flushAll(5, TimeUnit.SECONDS);
 		//added this as part of a fix to guarantee that only instance of selenium
 		//is running.  So be sure that there is only one browser session up at a time
-		killInstance();
+		releaseInstance(this);
+		SessionPool owner = pool;
+		pool = null;
+		if (owner != null) owner.stopped(this);
 		
 		//debugging this, because screenshots are getting taken too late on hudson wdh
 		//log.fine("Selenium stopped.");
@@ -97,6 +227,20 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	
+	/**
+	 * @return true if start() has been called and stop() has not been called since
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+	
+	/**
+	 * @return when start() was last called, in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
 	public boolean isEditable(Element element) {
 		return super.isEditable(element.getLocator());
 	}
@@ -116,14 +260,26 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 
 	public void clickAndWait(String locator) {
-		clickAndWait(locator, WAITFORPAGE_TIMEOUT, true);
-		ajaxWait();
+		Deadline previous = beginBudget(Long.parseLong(pageTimeout), TimeUnit.MILLISECONDS);
+		try {
+			clickAndWait(locator, pageTimeout, true);
+			ajaxWait();
+		}
+		finally {
+			endBudget(previous);
+		}
 	}
 	
 	public void clickAndWait(Element element) {
-		click(element);
-		waitForPageToLoad(WAITFORPAGE_TIMEOUT);
-		ajaxWait();
+		Deadline previous = beginBudget(Long.parseLong(pageTimeout), TimeUnit.MILLISECONDS);
+		try {
+			click(element);
+			waitForPageToLoad(pageTimeout);
+			ajaxWait();
+		}
+		finally {
+			endBudget(previous);
+		}
 	}
 
 		
@@ -135,10 +291,23 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 		clickAndWait(element.getLocator(), timeout);
 	}
 
+	public void clickAndWait(String locator, long timeout, TimeUnit unit) {
+		clickAndWait(locator, millis(timeout, unit), true);
+	}
+
+	/**
+	 * Click, then wait for the page to load and for ajax calls to finish, all within timeout.
+	 */
 	public void clickAndWait(String locator, String timeout, boolean highlight) {
-		click(locator, highlight);
-		waitForPageToLoad(timeout);
-		ajaxWait();
+		Deadline previous = beginBudget(Long.parseLong(timeout), TimeUnit.MILLISECONDS);
+		try {
+			click(locator, highlight);
+			waitForPageToLoad(timeout);
+			ajaxWait();
+		}
+		finally {
+			endBudget(previous);
+		}
 	}
 	
 	public void clickAndWait(Element element, String timeout, boolean highlight) {
@@ -155,37 +324,53 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public void waitForPageToLoad(){
-		waitForPageToLoad(WAITFORPAGE_TIMEOUT);
+		waitForPageToLoad(pageTimeout);
+	}
+	
+	public void waitForPageToLoad(long timeout, TimeUnit unit){
+		waitForPageToLoad(millis(timeout, unit));
 	}
 	
 	@Override
 	public void waitForPageToLoad(String timeout){
 		log.finer("Wait for page to load.");
 		long start = System.currentTimeMillis();
-		super.waitForPageToLoad(timeout);
+		super.waitForPageToLoad(budgeted(timeout));
+		attributeCache.nextEpoch();
 		ajaxWait();
 		Double waitedInSecs = ((System.currentTimeMillis() - start)) / 1000.0;
 		
 		log.finer("Waited " + numFormat.format(waitedInSecs) + "s for page to load.");
 
 	}
+
 	/**
 	 * @param locator
 	 * @param highlight - if true, highlight the element for a fraction of a second before clicking it.
 	 *   This makes it easier to see what selenium is doing "live".
 	 */
 	public void click(String locator, boolean highlight)  {
-		log.log(Level.INFO, "Click on " + getDescription(locator), TestRecords.Style.Action);
+		if (fusedActions) {
+			fusedAction("click", "Click on ", locator, highlight, "this.doClick(loc);");
+			ajaxWait();
+			recordFrame("click");
+			return;
+		}
+		logAction("click", "Click on ", locator);
 		if (highlight) highlight(locator);
 		super.click(locator);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("click");
 	}
 	
 	public void doubleClick(String locator, boolean highlight)  {
-		log.log(Level.INFO, "Double click on " + getDescription(locator), TestRecords.Style.Action);
+		logAction("doubleClick", "Double click on ", locator);
 		if (highlight) highlight(locator);
 		super.doubleClick(locator);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("doubleClick");
 	}
 
 	@Override
@@ -202,33 +387,42 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	public void click(Element element) {
 		Element humanReadable = element.getHumanReadable();
 		if (humanReadable != null) {
-			try {
-				log.log(Level.INFO, "Click on element: " + this.getText(humanReadable), TestRecords.Style.Action);
+			if (log.isLoggable(Level.INFO)) try {
+				logp(Level.INFO, "click", "Click on element: " + this.getText(humanReadable), TestRecords.Style.Action);
 			} catch(Exception e) {
 				log.log(Level.FINEST, "Unable to get text for associated human readable element: " + humanReadable, e);
 			}		
+		} else if (fusedActions) {
+			fusedAction("click", "Click on ", element, "this.doClick(loc);");
+			ajaxWait();
+			recordFrame("click");
+			return;
 		} else {
-			log.log(Level.INFO, "Click on " + getDescription(element), TestRecords.Style.Action);
+			logAction("click", "Click on ", element);
 		}
 	    highlight(element);
 		super.click(element.getLocator());
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("click");
 	}
 	
 	public void doubleClick(Element element) {
 		Element humanReadable = element.getHumanReadable();
 		if (humanReadable != null) {
-			try {
-				log.log(Level.INFO, "Double click on element: " + this.getText(humanReadable), TestRecords.Style.Action);
+			if (log.isLoggable(Level.INFO)) try {
+				logp(Level.INFO, "doubleClick", "Double click on element: " + this.getText(humanReadable), TestRecords.Style.Action);
 			} catch(Exception e) {
 				log.log(Level.FINEST, "Unable to get text for associated human readable element: " + humanReadable, e);
 			}		
 		} else {
-			log.log(Level.INFO, "Double click on " + getDescription(element), TestRecords.Style.Action);
+			logAction("doubleClick", "Double click on ", element);
 		}
 		highlight(element);
 		super.doubleClick(element.getLocator());
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("doubleClick");
 	}
 	
 	public String getText(Element element){
@@ -247,24 +441,29 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	
 	@Override
 	public void mouseOver(String locator) {
-		log.log(Level.INFO, "Hover over " + getDescription(locator), TestRecords.Style.Action);
+		logAction("mouseOver", "Hover over ", locator);
 		super.mouseOver(locator);
-
+		attributeCache.mutated();
+		recordFrame("mouseOver");
 	}
 	
 	public void mouseOver(Element element) {
-		log.log(Level.INFO, "Hover over " + getDescription(element), TestRecords.Style.Action);
+		logAction("mouseOver", "Hover over ", element);
 		super.mouseOver(element.getLocator());
+		attributeCache.mutated();
+		recordFrame("mouseOver");
 	}
 
 	@Override
 	public void keyPress(String locator, String keySequence) {
 		highlight(locator);
 		super.keyPress(locator,keySequence);
+		attributeCache.mutated();
+		recordFrame("keyPress");
 	}
 	
 	public void keyPress(Element element, String keySequence) {
-		log.log(Level.INFO, "Press and release key '"+keySequence+"' on " + getDescription(element), TestRecords.Style.Action);
+		logAction("keyPress", "Press and release key '"+keySequence+"' on ", element);
 		keyPress(element.getLocator(), keySequence);
 	}
 
@@ -274,10 +473,12 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 *   This makes it easier to see what selenium is doing "live".
 	 */
 	public void click(String locator, String humanReadableName, boolean highlight) {
-		log.log(Level.INFO, "Click on : " + humanReadableName, TestRecords.Style.Action);
+		logp(Level.INFO, "click", "Click on : " + humanReadableName, TestRecords.Style.Action);
 		if (highlight) highlight(locator);
 		super.click(locator);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("click");
 	}
 
 
@@ -293,13 +494,17 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @param locator A locator for the element to click on when it appears
 	 * @param timeout How long to wait for the element to appear before timing out and throwing an exception
 	 */
+	public void waitAndClick(String locator, long timeout, TimeUnit unit){
+		waitAndClick(locator, millis(timeout, unit));
+	}
+	
 	public void waitAndClick(String locator, String timeout){
-		super.waitForCondition("selenium.isElementPresent(\"" + escape(locator) + "\");", timeout);
+		waitFor(WaitCondition.present(locator), timeout);
 		click(locator);
 	}
 	
 	public void waitAndClick(Element element, String timeout) {
-		super.waitForCondition("selenium.isElementPresent(\"" + escape(element.getLocator()) + "\");", timeout);
+		waitFor(WaitCondition.present(element), timeout);
 		click(element);
 	}
 
@@ -312,15 +517,22 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @param timeout2 How long to wait for the page to load after clicking the element.
 	 */
 	public void waitAndClickAndWait(String locator, String timeout1, String timeout2){
+		// all the waits share one budget of timeout1 + timeout2
+		Deadline previous = beginBudget(Long.parseLong(timeout1) + Long.parseLong(timeout2), TimeUnit.MILLISECONDS);
 		try {
-			super.waitForCondition("selenium.isElementPresent(\"" + escape(locator) + "\");", timeout1);
+			try {
+				waitFor(WaitCondition.present(locator), timeout1);
+			}
+			catch(Exception e){
+				RuntimeException rte = new RuntimeException("Element did not appear: " + locator);
+				rte.initCause(e);
+				throw rte;
+			}
+			clickAndWait(locator, timeout2);
 		}
-		catch(Exception e){
-			RuntimeException rte = new RuntimeException("Element did not appear: " + locator);
-			rte.initCause(e);
-			throw rte;
+		finally {
+			endBudget(previous);
 		}
-		clickAndWait(locator, timeout2);
 	}
 	
 	public void waitAndClickAndWait(Element element, String timeout1, String timeout2) {
@@ -329,26 +541,30 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 
 	
 	public void waitAndClickAndWait(String locator, String timeout1){
-		waitAndClickAndWait(locator, timeout1, WAITFORPAGE_TIMEOUT);
+		waitAndClickAndWait(locator, timeout1, pageTimeout);
 	}
 	
 	public void waitAndClickAndWait(Element element, String timeout1) {
 		waitAndClickAndWait(element.getLocator(), timeout1);
 	}
 	
+	public void waitForElement(String locator, long timeout, TimeUnit unit){
+		waitForElement(locator, millis(timeout, unit));
+	}
+	
 	public void waitForElement(String locator, String timeout){
 		log.info("Waiting for element '" + locator  + "', with timeout of " + timeout + ".");
-		super.waitForCondition("selenium.isElementPresent(\"" + escape(locator) + "\");", timeout);
+		waitFor(WaitCondition.present(locator), timeout);
 	}
 	
 	public void waitForElement(Element element, String timeout){
 		log.info("Wait for element '" + element  + "', with timeout of " + timeout + ".");
-		super.waitForCondition("selenium.isElementPresent(\"" + escape(element.getLocator()) + "\");", timeout);
+		waitFor(WaitCondition.present(element), timeout);
 	}
 	
 	public void waitForTextPresent(String text, String timeout) {
 		log.info("Wait for text `" + text + "`, with timeout of " + timeout + ".");
-		super.waitForCondition("selenium.isTextPresent(\"" + text +"\");", timeout);
+		waitFor(WaitCondition.textPresent(text), timeout);
 	}
 	
 	/**
@@ -358,12 +574,17 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @param timeout - milliseconds
 	 * @author jsefler
 	 */
+	public void waitForInvisible(String locator, long timeout, TimeUnit unit){
+		waitForInvisible(locator, millis(timeout, unit));
+	}
+	
 	public void waitForInvisible(String locator, String timeout){
 		// if the locator is not present, then it is effectively invisible
 		if (!super.isElementPresent(locator)) return;
 		log.finer("Wait for element to be invisible '"+locator+"', with timeout of "+timeout+".");
 		try{
-			super.waitForCondition("!selenium.isVisible(\""+ escape(locator) +"\");", timeout);
+			// an element that goes away while waiting is invisible too
+			waitFor(WaitCondition.invisible(locator), timeout);
 		}
 		catch(SeleniumException e){
 			if (e.getMessage().contains("not found")){
@@ -386,10 +607,13 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @param timeout - milliseconds
 	 * @author jsefler
 	 */
+	public void waitForVisible(String locator, long timeout, TimeUnit unit){
+		waitForVisible(locator, millis(timeout, unit));
+	}
+	
 	public void waitForVisible(String locator, String timeout){
 		log.finer("Wait for element to be visible '" + locator  + "', with timeout of " + timeout + ".");
-		super.waitForCondition("selenium.isElementPresent(\""+ escape(locator) +"\");", timeout); // first wait for its existence
-		super.waitForCondition("selenium.isVisible(\""+ escape(locator) +"\");", timeout); // then wait for its visibility
+		waitFor(WaitCondition.visible(locator), timeout); // exists and is visible, one wait
 	}
 	
 	public void waitForVisible(Element element, String timeout){
@@ -398,9 +622,16 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	
 	@Override
 	public void type(String locator, String value) {
-		log.log(Level.INFO, "Type '" + value + "' into " + getDescription(locator), TestRecords.Style.Action);
+		if (fusedActions) {
+			fusedAction("type", "Type '" + value + "' into ", locator, true, "this.doType(loc, " + jsString(value) + ");");
+			recordFrame("type");
+			return;
+		}
+		logAction("type", "Type '" + value + "' into ", locator);
 		highlight(locator);
 		super.type(locator, value);
+		attributeCache.mutated();
+		recordFrame("type");
 	}
 	
 	public void type(Element element, String value) {
@@ -409,20 +640,30 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	
 	@Override
 	public void typeKeys(String locator, String value) {
-		log.log(Level.INFO, "Type keys '" + value + "' into " + getDescription(locator), TestRecords.Style.Action);
+		logAction("typeKeys", "Type keys '" + value + "' into ", locator);
 		highlight(locator);
 		super.typeKeys(locator, value);
+		attributeCache.mutated();
+		recordFrame("typeKeys");
 	}
 	
 	public void typeKeys(Element element, String value) {
 		typeKeys(element.getLocator(), value);
 	}
 	
-	public void type(String locator, String humanReadableName, String value) {
-		log.log(Level.INFO, "Type '" + value + "' into " + getElementType(locator) + ": " + humanReadableName + "'", TestRecords.Style.Action);
+	public void type(final String locator, final String humanReadableName, final String value) {
+		if (log.isLoggable(Level.INFO)) {
+			log.log(new LazyLogRecord(Level.INFO, log, TestRecords.Style.Action) {
+				protected String buildMessage() {
+					return "Type '" + value + "' into " + (cheapDescriptions ? locator : getElementType(locator)) + ": " + humanReadableName + "'";
+				}
+			}.source(CLASS_NAME, "type"));
+		}
 		highlight(locator);
 		super.type(locator, value);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("type");
 	}
 	
 	public void setText(String locator, String value){
@@ -430,10 +671,18 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public void setText(Element element, String value){
-		log.log(Level.INFO, "Type '" + value + "' into " + getDescription(element), TestRecords.Style.Action);
+		if (fusedActions) {
+			fusedAction("setText", "Type '" + value + "' into ", element, "this.doType(loc, " + jsString(value) + ");");
+			ajaxWait();
+			recordFrame("type");
+			return;
+		}
+		logAction("setText", "Type '" + value + "' into ", element);
 		highlight(element);
 		super.type(element.getLocator(), value);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("type");
 	}
 	
 	public void setText(String locator, String humanReadableName,String value){
@@ -448,11 +697,14 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 		final String tab = new Integer(KeyEvent.VK_TAB).toString();
 		final String space = new Integer(KeyEvent.VK_SPACE).toString();
 		try {
-			log.log(Level.INFO, "Open URL '" + url + "'.", TestRecords.Style.Action);  
+			logp(Level.INFO, "open", "Open URL '" + url + "'.", TestRecords.Style.Action);  
 			super.open(url);
+			attributeCache.nextEpoch();
 			log.info("Current URL is " + getLocation() + " .");	
+			recordFrame("open");
 		}
 		catch(SeleniumException se){
+			attributeCache.nextEpoch();
 			if (!ignoreSSLError) throw se;
 			
 			if(isVisible(SSLUnderstandRisks)){
@@ -484,7 +736,11 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 
 	@Override
 	public void check(String locator) {
-		log.log(Level.INFO, "Check " + getDescription(locator), TestRecords.Style.Action);
+		if (fusedActions) {
+			fusedCheckUncheck(locator, true, true);
+			return;
+		}
+		logAction("check", "Check ", locator);
 		checkUncheck(locator, true);
 	}
 	
@@ -494,7 +750,11 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	
 	@Override
 	public void uncheck(String locator) {
-		log.log(Level.INFO, "Uncheck " + getDescription(locator), TestRecords.Style.Action);
+		if (fusedActions) {
+			fusedCheckUncheck(locator, false, true);
+			return;
+		}
+		logAction("uncheck", "Uncheck ", locator);
 		checkUncheck(locator, false);
 	}
 	
@@ -503,49 +763,102 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public void checkUncheck(Element element, boolean check){
-		log.log(Level.INFO, (check? "Check ":"Uncheck ") + element, TestRecords.Style.Action);
+		logp(Level.INFO, "checkUncheck", (check? "Check ":"Uncheck ") + element, TestRecords.Style.Action);
 		checkUncheck(element.getLocator(), check);
 	}
 	
-	public void checkUncheck(String locator, boolean check){
+	public void checkUncheck(final String locator, final boolean check){
+		if (fusedActions) {
+			fusedCheckUncheck(locator, check, false);
+			return;
+		}
 		if (isChecked(locator) != check) {
 			highlight(locator);
 			super.click(locator);
+			attributeCache.mutated();
 			if (isChecked(locator) != check) {
 				if (check) 
 					super.check(locator); //just to be sure
 				else super.uncheck(locator);
 			}
 			ajaxWait();
+			recordFrame(check ? "check" : "uncheck");
 		}
 		else {
 			highlight(locator);
-			log.log(Level.FINE, getDescription(locator) + " is already " + (check ? "checked.": "unchecked."));
+			if (log.isLoggable(Level.FINE)) {
+				log.log(new LazyLogRecord(Level.FINE, log) {
+					protected String buildMessage() {
+						return getDescription(locator) + " is already " + (check ? "checked.": "unchecked.");
+					}
+				}.source(CLASS_NAME, "checkUncheck"));
+			}
+		}
+	}
+	
+	/**
+	 * Same as checkUncheck, but the state check, click and verification all happen in one 
+	 * browser side script.
+	 * @param logAction - if true, log the check/uncheck as an action (the Element variant 
+	 *   logs it on its own)
+	 */
+	protected void fusedCheckUncheck(String locator, boolean check, boolean logAction){
+		String checkScript = 
+			"var changed = (this.isChecked(loc) != " + check + ");" +
+			"if (changed) {" +
+			"  this.doClick(loc);" +
+			"  if (this.isChecked(loc) != " + check + ") { this." + (check ? "doCheck" : "doUncheck") + "(loc); }" +
+			"}" +
+			"str = str + 'changed=' + changed + '\\n';";
+		Properties result = fusedAction(check ? "check" : "uncheck", logAction ? (check ? "Check " : "Uncheck ") : null, locator, true, checkScript);
+		if (Boolean.parseBoolean(result.getProperty("changed"))) {
+			ajaxWait();
+			recordFrame(check ? "check" : "uncheck");
+		}
+		else {
+			log.log(Level.FINE, describe(locator, getElementType(result, locator)) + " is already " + (check ? "checked.": "unchecked."));
 		}
 	}
 
 	@Override
 	public void select(String selectLocator, String optionLocator) {
-		log.log(Level.INFO, "Select option '"	+ optionLocator + "' in list '" + selectLocator + "'.", TestRecords.Style.Action);
+		if (fusedActions) {
+			logp(Level.INFO, "select", "Select option '"	+ optionLocator + "' in list '" + selectLocator + "'.", TestRecords.Style.Action);
+			fusedAction("select", null, selectLocator, true, "this.doSelect(loc, " + jsString(optionLocator) + ");");
+			ajaxWait();
+			recordFrame("select");
+			return;
+		}
+		logp(Level.INFO, "select", "Select option '"	+ optionLocator + "' in list '" + selectLocator + "'.", TestRecords.Style.Action);
 		highlight(selectLocator);
 		super.select(selectLocator, optionLocator);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("select");
 	}
 	
 	public void select(Element element, String optionLocator) {
 		Element humanReadable = element.getHumanReadable();
 		if (humanReadable != null) {
-			try {
-				log.log(Level.INFO, "Select option '"	+ optionLocator + "' in list corresponding to " + getText(humanReadable), TestRecords.Style.Action);
+			if (log.isLoggable(Level.INFO)) try {
+				logp(Level.INFO, "select", "Select option '"	+ optionLocator + "' in list corresponding to " + getText(humanReadable), TestRecords.Style.Action);
 			} catch(Exception e) {
 				log.log(Level.FINEST, "Unable to get text for associated human readable element: " + humanReadable, e);
 			}		
+		} else if (fusedActions) {
+			logp(Level.INFO, "select", "Select option '"	+ optionLocator + "' in list " + element, TestRecords.Style.Action);
+			fusedAction("select", null, element.getLocator(), true, "this.doSelect(loc, " + jsString(optionLocator) + ");");
+			ajaxWait();
+			recordFrame("select");
+			return;
 		} else {
-			log.log(Level.INFO, "Select option '"	+ optionLocator + "' in list " + element, TestRecords.Style.Action);
+			logp(Level.INFO, "select", "Select option '"	+ optionLocator + "' in list " + element, TestRecords.Style.Action);
 		}
 		highlight(element);
 		super.select(element.getLocator(), optionLocator);
+		attributeCache.mutated();
 		ajaxWait();
+		recordFrame("select");
 	}
 	
 	/**
@@ -594,14 +907,26 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 		return isElementPresent(tabElement.getSelectedElement().getLocator()) && !isElementPresent(tabElement.getLocator());
 	}
 	
-	public boolean isElementPresent(String element,Level level){
+	public boolean isElementPresent(final String element,Level level){
 		if(super.isElementPresent(element)){
-			log.log(level,"Found " + getDescription(element));
+			if (log.isLoggable(level)) {
+				log.log(new LazyLogRecord(level, log) {
+					protected String buildMessage() {
+						return "Found " + getDescription(element);
+					}
+				}.source(CLASS_NAME, "isElementPresent"));
+			}
 			//highlight(element); //TODO It's misleading to highlight an element on an arbitrary query.  It's more appropriate to highlight on a assertElementIsPresent(...) which is not yet written.  (jsefler 11/12/09)
 			return true;
 		}
 		else {	
-			log.log(level, "Did not find " + getDescription(element));
+			if (log.isLoggable(level)) {
+				log.log(new LazyLogRecord(level, log) {
+					protected String buildMessage() {
+						return "Did not find " + getDescription(element);
+					}
+				}.source(CLASS_NAME, "isElementPresent"));
+			}
 			return false;
 		}
 	}
@@ -621,17 +946,31 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 		}
 	}
 	
+	@Override
+	public void selectWindow(String windowID){
+		super.selectWindow(windowID);
+		attributeCache.nextEpoch();
+	}
+	
+	@Override
+	public void selectFrame(String locator){
+		super.selectFrame(locator);
+		attributeCache.nextEpoch();
+	}
+	
 	@Override
 	public void goBack(){
-		log.log(Level.INFO, "Click Browser Back Button", TestRecords.Style.Action);
+		logp(Level.INFO, "goBack", "Click Browser Back Button", TestRecords.Style.Action);
 		super.goBack();
+		attributeCache.nextEpoch();
 		waitForPageToLoad();
 	}
 	
 	@Override
 	public void refresh(){
-		log.log(Level.INFO, "Click Browser Refresh Button", TestRecords.Style.Action);
+		logp(Level.INFO, "refresh", "Click Browser Refresh Button", TestRecords.Style.Action);
 		super.refresh();
+		attributeCache.nextEpoch();
 		waitForPageToLoad();
 	}
 	
@@ -656,7 +995,7 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 
 	@Override
 	public String getAlert() {
-		log.log(Level.INFO, "Click OK on alert dialog.", TestRecords.Style.Action);
+		logp(Level.INFO, "getAlert", "Click OK on alert dialog.", TestRecords.Style.Action);
 		String text = super.getAlert();
 		log.log(Level.INFO, "Dismissed alert dialog: " + text);
 		return text;
@@ -664,7 +1003,7 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 
 	@Override
 	public String getConfirmation() {
-		log.log(Level.INFO, "Click OK on confirmation dialog.", TestRecords.Style.Action);
+		logp(Level.INFO, "getConfirmation", "Click OK on confirmation dialog.", TestRecords.Style.Action);
 		String text = super.getConfirmation();
 		log.log(Level.INFO, "Dismissed confirmation dialog: " + text);
 		return text;
@@ -672,7 +1011,7 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 
 	@Override
 	public String getPrompt() {
-		log.log(Level.INFO, "Click OK on prompt dialog.", TestRecords.Style.Action);
+		logp(Level.INFO, "getPrompt", "Click OK on prompt dialog.", TestRecords.Style.Action);
 		String text = super.getPrompt();
 		log.log(Level.INFO, "Dismissed prompt dialog: " + text);
 		return text;
@@ -680,28 +1019,107 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	
 	@Override
 	public void answerOnNextPrompt(String answer){
-		log.log(Level.INFO, "Answering prompt with: " + answer, TestRecords.Style.Action);
+		logp(Level.INFO, "answerOnNextPrompt", "Answering prompt with: " + answer, TestRecords.Style.Action);
 		super.answerOnNextPrompt(answer);
 	}
 	
+	/**
+	 * Sets the timeout of this session's commands and page loads.  Other sessions 
+	 * are not affected.
+	 */
 	@Override
 	public void setTimeout(String timeout){
 		super.setTimeout(timeout);
-		WAITFORPAGE_TIMEOUT = timeout;
+		pageTimeout = timeout;
+	}
+	
+	public void setTimeout(long timeout, TimeUnit unit){
+		setTimeout(millis(timeout, unit));
 	}
 	
 	/**
 	 * Retrieves the current value for Selenium wait for page timeout. 
-	 * @return Current value of: WAITFORPAGE_TIMEOUT
+	 * @return this session's page timeout, in milliseconds
 	 */
 	public String getTimeout(){
-		return WAITFORPAGE_TIMEOUT;
+		return pageTimeout;
+	}
+	
+	public long getTimeout(TimeUnit unit){
+		return unit.convert(Long.parseLong(pageTimeout), TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Start a time budget for a step: until endBudget is called, every wait of this
+	 * session gets at most what is left of it, and fails once it is used up.  Budgets 
+	 * nest, an inner budget never extends an outer one.
+	 * <pre>
+	 * Deadline previous = sel.beginBudget(90, TimeUnit.SECONDS);
+	 * try { ... } finally { sel.endBudget(previous); }
+	 * </pre>
+	 * @return the budget in effect before, to pass to endBudget
+	 */
+	public Deadline beginBudget(long amount, TimeUnit unit){
+		Deadline previous = budget;
+		budget = Deadline.after(amount, unit).earliest(previous);
+		return previous;
+	}
+	
+	public void endBudget(Deadline previous){
+		budget = previous;
+	}
+	
+	/**
+	 * @return the budget of the current step, or null
+	 */
+	public Deadline getBudget(){
+		return budget;
+	}
+	
+	/**
+	 * @return timeout, or what is left of the current budget if that is less
+	 * @throws SeleniumException if the budget is used up
+	 */
+	protected String budgeted(String timeout){
+		Deadline current = budget;
+		if (current == null) return timeout;
+		long left = current.clamp(Long.parseLong(timeout));
+		if (left <= 0) throw new SeleniumException("Timed out: the time budget of " + current.getBudgetMillis() + "ms is used up");
+		return String.valueOf(left);
+	}
+	
+	protected static String millis(long amount, TimeUnit unit){
+		return String.valueOf(unit.toMillis(amount));
+	}
+	
+	/**
+	 * Waits for the script, for at most what is left of the current budget.
+	 */
+	@Override
+	public void waitForCondition(String script, String timeout){
+		super.waitForCondition(script, budgeted(timeout));
+	}
+	
+	/**
+	 * Waits for the popup window, for at most what is left of the current budget.
+	 */
+	@Override
+	public void waitForPopUp(String windowID, String timeout){
+		super.waitForPopUp(windowID, budgeted(timeout));
+	}
+	
+	/**
+	 * Waits for the frame to load, for at most what is left of the current budget.
+	 */
+	@Override
+	public void waitForFrameToLoad(String frameAddress, String timeout){
+		super.waitForFrameToLoad(frameAddress, budgeted(timeout));
 	}
 	
 	public void selectPopupWindowAndWait(){
 		String[] winnames = getAllWindowNames();
 		String name = winnames[winnames.length-1]; //select last opened window
-		waitForPopUp(name, "60000");
+		waitForPopUp(name, pageTimeout);
 		selectWindow(name);
 	}
 
@@ -728,6 +1146,7 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @throws IOException
 	 */
 	public Properties getAttributes(String locator) {
+		long epoch = attributeCache.getEpoch();
 		String attributesScript =
 			"{" +
 				"var elem =  this.browserbot.findElement(\"" + locator + "\");" +
@@ -747,9 +1166,29 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 		}catch(IOException ioe) {
 			throw new RuntimeException(ioe);
 		}
+		attributeCache.put(locator, props, epoch);
 		return props;
 	}
 	
+	/**
+	 * Like getAttributes, but answered from the attribute cache when possible, so the 
+	 * attributes may be from before the last action or ajax update.  Only good enough
+	 * for describing elements in the logs.
+	 */
+	protected Properties getCachedAttributes(String locator) {
+		Properties cached = attributeCache.get(locator);
+		if (cached != null) return cached;
+		return getAttributes(locator);
+	}
+	
+	/**
+	 * @return the per page cache used by getElementType (and so by the element 
+	 * descriptions in the logs), with its hit/miss counters
+	 */
+	public ElementAttributeCache getAttributeCache() {
+		return attributeCache;
+	}
+	
 	/*
 	 * Properties attr = sel().getAttributes(element);
 			Set<String> mySet = attr.stringPropertyNames();
@@ -772,13 +1211,18 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	 * @return
 	 */
 	public String getDescription(Element element) {
-		String elementStr = element.toString();
+		if (cheapDescriptions) return element.toString();
 		String elementType = "";
 		try {
 			 elementType = getElementType(element);
 		}catch(Exception e) {
-			log.log(Level.FINER, "Could not retrieve element type, perhaps it is not present: " + elementStr, e);
+			log.log(Level.FINER, "Could not retrieve element type, perhaps it is not present: " + element, e);
 		}
+		return describe(element, elementType);
+	}
+	
+	protected String describe(Element element, String elementType) {
+		String elementStr = element.toString();
 		//remove duplicate element type strings to avoid logs like... Click on link: link in table... ->  Click on link: in table...
 		elementStr=elementStr.replaceAll("^" +Pattern.quote(elementType) + " ", ""); 
 
@@ -789,27 +1233,82 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public String getDescription(String locator) {
+		if (cheapDescriptions) return locator;
 		try {
-			return getElementType(locator) + ": " + locator;
+			return describe(locator, getElementType(locator));
 		} catch(Exception e) {
 			log.log(Level.FINER, "Could not get element type for '" + locator + "', perhaps it is not present?", e);
 		}
 		return locator;
 	}
 	
+	protected String describe(String locator, String elementType) {
+		return elementType + ": " + locator;
+	}
+	
+	/**
+	 * Log with the source class and method given, like Logger.logp, so the formatter
+	 * doesn't have to find them by walking the stack.
+	 */
+	protected static void logp(Level level, String sourceMethod, String message, Object... params) {
+		if (log.isLoggable(level)) log.log(new SourcedLogRecord(level, log, CLASS_NAME, sourceMethod, message, params));
+	}
+	
+	/**
+	 * Logs an action at INFO level.  The element description is only looked up in the
+	 * browser if a handler actually publishes the record.
+	 * @param methodName - the action's method, logged as the record's source, eg "click"
+	 * @param actionPrefix - the start of the message, eg "Click on "
+	 */
+	protected void logAction(String methodName, final String actionPrefix, final String locator) {
+		if (!log.isLoggable(Level.INFO)) return;
+		log.log(new LazyLogRecord(Level.INFO, log, TestRecords.Style.Action) {
+			protected String buildMessage() {
+				return actionPrefix + getDescription(locator);
+			}
+		}.source(CLASS_NAME, methodName));
+	}
+	
+	protected void logAction(String methodName, final String actionPrefix, final Element element) {
+		if (!log.isLoggable(Level.INFO)) return;
+		log.log(new LazyLogRecord(Level.INFO, log, TestRecords.Style.Action) {
+			protected String buildMessage() {
+				return actionPrefix + getDescription(element);
+			}
+		}.source(CLASS_NAME, methodName));
+	}
+	
+	public void setCheapDescriptions(boolean cheapDescriptions) {
+		this.cheapDescriptions = cheapDescriptions;
+	}
+	
+	public boolean isCheapDescriptions() {
+		return cheapDescriptions;
+	}
+	
 	
 	
 	public String getElementType(String locator) {
 		
 		Properties attrs;
 		try {
-			attrs = getAttributes(locator);
+			attrs = getCachedAttributes(locator);
 		}
 		catch (Exception e){
 			//if attributes can't be retrieved, log and return the locator
 			log.log(Level.FINEST, "Can't retrieve attributes for locator: " + locator, e);
 			return locator;
 		}
+		return getElementType(attrs, locator);
+	}
+	
+	/**
+	 * @param attrs - the attributes of the element, as returned by getAttributes
+	 * @param locator - returned if the attributes don't contain a tag name
+	 * @return a human readable type of the element, eg "textbox", "link", "checkbox"
+	 */
+	protected String getElementType(Properties attrs, String locator) {
+		if (attrs.getProperty("tagName") == null) return locator;
 		String tagName = attrs.getProperty("tagName").toLowerCase();
 		if (tagName.equals("input")) {
 			String type = null;
@@ -838,6 +1337,127 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	
+	/**
+	 * Runs a logged action as a single browser side script: the element is looked up once,
+	 * its tag name and type are read, it is highlighted, and then actionScript is run.  The
+	 * action is logged before the script is sent, like the other actions, but without a
+	 * browser call to find the element's type: that is only in the log if the attribute
+	 * cache knows it.  The action script can use the variables <code>loc</code> (the locator)
+	 * and <code>elem</code> (the element), and can append "name=value\n" lines to <code>str</code>
+	 * to return extra values.
+	 * @param methodName - the action's method, logged as the record's source, eg "click"
+	 * @param actionPrefix - the start of the log message, eg "Click on ", or null to not log anything
+	 * @param locator
+	 * @param highlight - if true, highlight the element before running the action
+	 * @param actionScript - javascript run against the selenium object in the browser
+	 * @return the element's tagName and type, plus any values added by actionScript
+	 */
+	protected Properties fusedAction(String methodName, String actionPrefix, String locator, boolean highlight, String actionScript) {
+		if (actionPrefix != null && log.isLoggable(Level.INFO)) {
+			logp(Level.INFO, methodName, actionPrefix + getCachedDescription(locator), TestRecords.Style.Action);
+		}
+		try {
+			Properties result = loadProperties(getEval(fusedActionScript(locator, highlight, actionScript)));
+			noteRequests(result);
+			return result;
+		}
+		finally {
+			attributeCache.mutated();
+		}
+	}
+	
+	protected Properties fusedAction(String methodName, String actionPrefix, Element element, String actionScript) {
+		if (log.isLoggable(Level.INFO)) {
+			logp(Level.INFO, methodName, actionPrefix + getCachedDescription(element), TestRecords.Style.Action);
+		}
+		try {
+			Properties result = loadProperties(getEval(fusedActionScript(element.getLocator(), true, actionScript)));
+			noteRequests(result);
+			return result;
+		}
+		finally {
+			attributeCache.mutated();
+		}
+	}
+	
+	/**
+	 * @return the description of the element if its type can be found in the attribute
+	 * cache, otherwise just the locator.  Never calls the browser.
+	 */
+	protected String getCachedDescription(String locator) {
+		Properties attrs = cheapDescriptions ? null : attributeCache.get(locator);
+		return attrs == null ? locator : describe(locator, getElementType(attrs, locator));
+	}
+	
+	protected String getCachedDescription(Element element) {
+		Properties attrs = cheapDescriptions ? null : attributeCache.get(element.getLocator());
+		return attrs == null ? element.toString() : describe(element, getElementType(attrs, element.getLocator()));
+	}
+	
+	protected String fusedActionScript(String locator, boolean highlight, String actionScript) {
+		return
+			"{" +
+				"var loc = " + jsString(locator) + ";" +
+				"var elem = this.browserbot.findElement(loc);" +
+				"var str = 'tagName=' + elem.tagName + '\\n';" +
+				"var type = elem.getAttribute('type');" +
+				"if (type) str = str + 'type=' + type + '\\n';" +
+				(highlight ? "try { this.doHighlight(loc); } catch (e) {}" : "") +
+				(trackRequests ? RequestTracker.beforeAction() : "") +
+				actionScript +
+				(trackRequests ? RequestTracker.afterAction() : "") +
+				"str;" +
+			"}";
+	}
+	
+	/**
+	 * Remember whether a fused action started any network requests, so the ajaxWait
+	 * that follows it can be skipped.
+	 */
+	protected void noteRequests(Properties result) {
+		if ("0".equals(result.getProperty("requestsStarted")) && "0".equals(result.getProperty("requestsInFlight"))) {
+			quietAfterCommand = getCommandMetrics().getTotalCount();
+		}
+		else quietAfterCommand = -1;
+	}
+	
+	protected static Properties loadProperties(String str) {
+		Properties props = new Properties();
+		try {
+			props.load(new ByteArrayInputStream(str.getBytes("UTF-8")));
+		}catch(IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+		return props;
+	}
+	
+	/**
+	 * @return the given string as a double quoted javascript string literal
+	 */
+	protected static String jsString(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+	
+	public void setFusedActions(boolean fusedActions) {
+		this.fusedActions = fusedActions;
+	}
+	
+	public boolean isFusedActions() {
+		return fusedActions;
+	}
+	
 	public String screenCapture() throws Exception {
 		String dirName = System.getProperty("selenium.screenshot.dir", System.getProperty("user.dir") + File.separator
 		+ "screenshots");
@@ -845,40 +1465,41 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	protected void writeBase64ScreenCapture(String data, File file) throws FileNotFoundException, IOException{
-		byte[] pngBytes = Base64.decode(data);
-		FileOutputStream fos = new FileOutputStream(file);
-		fos.write(pngBytes);
-		fos.flush();
-		fos.close();
+		writeBase64(data, file);
+	}
+	
+	protected void writeBase64(final CharSequence data, File file) throws IOException{
+		// decoded in chunks straight to the file, the whole png is never in memory
+		if (dedupArtifacts) {
+			ContentAddressedStore.forDirectory(file.getAbsoluteFile().getParentFile()).store(file, new ContentAddressedStore.Content() {
+				public void writeTo(WritableByteChannel channel) throws IOException {
+					Base64ChannelWriter.write(data, channel);
+				}
+			});
+		}
+		else Base64ChannelWriter.write(data, file);
 	}
 	public String screenCapture(String dirName) throws Exception {
-		String outFileName = dateFormat.format(new Date()) + ".png";
+		String outFileName = artifacts.nextName(".png");
 		return screenCapture(dirName, outFileName, true);
 	}
 	
 	public String screenCapture(String dirName, String outFileName, boolean writeHtml) throws Exception {
 		String fullPathtoFile = null;
-		mkdir(dirName);
+		File dir = artifacts.directory(dirName);
 		
 		try {
-			File htmlDir = localHtmlDir != null? localHtmlDir : screenshotDir;
 			if (writeHtml) {
-				writeHtmlOnError(htmlDir);
+				writeHtmlOnError(dir);
 			}
-			//if success use that next time
-			localHtmlDir = htmlDir;
-			fullPathtoFile = localHtmlDir.getCanonicalPath()+ File.separator + outFileName;
-			pngRemoteScreenCapture(fullPathtoFile);
+			fullPathtoFile = dir.getCanonicalPath()+ File.separator + outFileName;
+			fullPathtoFile = capturedScreenshot(pngRemoteScreenCapture(fullPathtoFile));
 		}
 		catch(Exception e ){
 			log.log(Level.FINER, "Couldn't capture screenshot, trying to write to tmp dir instead.",e);
 			//if this failed, try the temp dir
-			screenshotDir = new File("/tmp");
-			super.captureScreenshot("/tmp"+ File.separator + outFileName);
-			//log.log(Level.FINE, "Captured ScreenShot to "+"/tmp"+ File.separator + outFileName);
-			fullPathtoFile = "/tmp"+ File.separator + outFileName;
-			
-			//writeHtmlOnError(screenshotDir);		
+			fullPathtoFile = artifacts.getFallbackDirectory().getPath() + File.separator + outFileName;
+			super.captureScreenshot(fullPathtoFile);
 		}
 		return fullPathtoFile;
 	}
@@ -886,53 +1507,285 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	public String testNGScreenCapture(String className, String methodName) throws Exception{
 		String dirName = System.getProperty("selenium.screenshot.dir", System.getProperty("user.dir") + File.separator
 				+ "test-output" + File.separator + "screenshots");
-		mkdir(dirName);
-		Date rightNow = new Date();
-		String outFileName = dateFormat.format(rightNow) + "-" + className + "." + methodName + ".png";
-		String fullpath = dirName + File.separator + outFileName;
-		pngRemoteScreenCapture(fullpath);
-		return fullpath;
+		File dir = artifacts.directory(dirName);
+		String outFileName = artifacts.nextName("-" + className + "." + methodName + ".png");
+		String fullpath = dir.getPath() + File.separator + outFileName;
+		persistFrames(fullpath.substring(0, fullpath.length() - ".png".length()));
+		return capturedScreenshot(pngRemoteScreenCapture(fullpath));
 	}
-		
-	protected void pngRemoteScreenCapture(String filepath) throws Exception{
-		String base64Png = super.captureEntirePageScreenshotToString("");
-		File ssFile = new File(filepath);
-		writeBase64ScreenCapture(base64Png, ssFile);
+	
+	/**
+	 * Wait for a screenshot to be written and log where it went.
+	 * @return the path of the file written, which may be in the fallback directory
+	 */
+	protected String capturedScreenshot(Future<File> write) throws Exception{
+		File ssFile;
+		try {
+			ssFile = write.get();
+		}
+		catch (ExecutionException ee) {
+			throw ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+		}
 		log.log(Level.FINE, "screenshot URL= "+ getLocation());
 		log.log(Level.FINE, "Captured screenshot to "+ ssFile.toURI().toURL());
+		return ssFile.getPath();
 	}
 	
-	protected void mkdir(String dirName){
-		if (screenshotDir == null) {
-			screenshotDir = new File(dirName);
+	/**
+	 * @return the file the screenshot is written to, once it is.  With asyncArtifacts,
+	 *  that is the fallback directory's file if it couldn't be written to filepath.
+	 */
+	protected Future<File> pngRemoteScreenCapture(String filepath) throws Exception{
+		final String base64Png = super.captureEntirePageScreenshotToString("");
+		final File ssFile = new File(filepath);
+		if (asyncArtifacts) {
+			// like screenCapture's fallback, but with the data already fetched from the browser
+			final File fallbackFile = new File(artifacts.getFallbackDirectory(), ssFile.getName());
+			return submitArtifact(ssFile, new Callable<Object>() {
+				public Object call() throws Exception {
+					writeBase64ScreenCapture(base64Png, ssFile);
+					return null;
+				}
+			}, fallbackFile, new Callable<Object>() {
+				public Object call() throws Exception {
+					Base64ChannelWriter.write(base64Png, fallbackFile);
+					return null;
+				}
+			});
 		}
-		if (!(screenshotDir.exists() && screenshotDir.isDirectory())) {
-			screenshotDir.mkdirs();
+		writeBase64ScreenCapture(base64Png, ssFile);
+		return AsyncArtifactWriter.written(ssFile);
+	}
+	
+	/**
+	 * Queue a write on the shared AsyncArtifactWriter, and remember it until it's done
+	 * so that stop() can wait for this session's writes only.
+	 */
+	protected Future<File> submitArtifact(File file, Callable<?> write, File fallbackFile, Callable<?> fallback) {
+		Iterator<Future<File>> it = pendingArtifacts.iterator();
+		while (it.hasNext()) {
+			if (it.next().isDone()) it.remove();
 		}
+		Future<File> future = AsyncArtifactWriter.getShared().submit(file, write, fallbackFile, fallback);
+		pendingArtifacts.add(future);
+		return future;
+	}
+	
+	protected void mkdir(String dirName){
+		artifacts.directory(dirName);
 	}
 	
 	
 	
 	protected void writeHtmlOnError(File dir) throws Exception{
 
-		Date rightNow = new Date();
-		BufferedWriter out = new BufferedWriter(new FileWriter(dir.getCanonicalPath()
-				 + File.separator + dateFormat.format(rightNow) + ".html"));
-		out.write(getHtmlSource());
+		if (compressHtml) {
+			// the slices come from the browser, so this is done on the test thread
+			writeCompressedHtml(new File(dir.getCanonicalPath()
+				 + File.separator + artifacts.nextName(".html.gz")));
+			return;
+		}
+		final File htmlFile = new File(dir.getCanonicalPath()
+				 + File.separator + artifacts.nextName(".html"));
+		final String htmlSource = getHtmlSource();
+		if (asyncArtifacts) {
+			submitArtifact(htmlFile, new Callable<Object>() {
+				public Object call() throws Exception {
+					writeHtml(htmlSource, htmlFile);
+					return null;
+				}
+			}, null, null);
+		}
+		else writeHtml(htmlSource, htmlFile);
+	}
+	
+	protected void writeHtml(final String htmlSource, File file) throws IOException{
+		if (dedupArtifacts) {
+			ContentAddressedStore.forDirectory(file.getAbsoluteFile().getParentFile()).store(file, new ContentAddressedStore.Content() {
+				public void writeTo(WritableByteChannel channel) throws IOException {
+					Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel)));
+					out.write(htmlSource);
+					out.flush();
+				}
+			});
+			return;
+		}
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		out.write(htmlSource);
 		out.close();
 	}
 	
+	/**
+	 * Stream the page source into a gzip compressed, UTF-8 encoded file, one slice 
+	 * at a time.
+	 */
+	protected void writeCompressedHtml(File file) throws IOException{
+		ContentAddressedStore.Content content = new ContentAddressedStore.Content() {
+			public void writeTo(WritableByteChannel channel) throws IOException {
+				Writer out = new OutputStreamWriter(new GZIPOutputStream(Channels.newOutputStream(channel), 64 * 1024), "UTF-8");
+				try {
+					writeHtmlSource(out);
+				}
+				finally {
+					out.close();  // finishes the gzip stream, and closes the channel
+				}
+			}
+		};
+		if (dedupArtifacts) {
+			ContentAddressedStore.forDirectory(file.getAbsoluteFile().getParentFile()).store(file, content);
+			return;
+		}
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			content.writeTo(fos.getChannel());
+		}
+		finally {
+			fos.close();
+		}
+	}
+	
+	/**
+	 * Write the same source getHtmlSource() returns, fetching it with getEval in slices 
+	 * of htmlSliceChars.  The first call returns the length and the first slice, so a 
+	 * page that fits in one slice takes a single round trip.
+	 */
+	protected void writeHtmlSource(Writer out) throws IOException{
+		int slice = htmlSliceChars;
+		String first = getEval("var src = this.browserbot.getDocument().getElementsByTagName('html')[0].innerHTML; " +
+				"if (src.length > " + slice + ") this.extendedSeleniumHtmlSource = src; " +
+				"src.length + ':' + src.substring(0, " + slice + ");");
+		int colon = first.indexOf(':');
+		int length = Integer.parseInt(first.substring(0, colon));
+		out.write(first, colon + 1, first.length() - colon - 1);
+		if (length <= slice) return;
+		try {
+			for (int start = slice; start < length; start += slice) {
+				out.write(getEval("this.extendedSeleniumHtmlSource.substring(" + start + ", " + Math.min(length, start + slice) + ");"));
+			}
+		}
+		finally {
+			getEval("delete this.extendedSeleniumHtmlSource; '';");
+		}
+	}
+	
+	public void setCompressHtml(boolean compressHtml) {
+		this.compressHtml = compressHtml;
+	}
+	
+	public boolean isCompressHtml() {
+		return compressHtml;
+	}
+	
+	public void setHtmlSliceChars(int htmlSliceChars) {
+		this.htmlSliceChars = htmlSliceChars;
+	}
+	
+	public SessionArtifacts getArtifacts() {
+		return artifacts;
+	}
+	
+	public void setArtifacts(SessionArtifacts artifacts) {
+		this.artifacts = artifacts;
+	}
+	
+	public void setDedupArtifacts(boolean dedupArtifacts) {
+		this.dedupArtifacts = dedupArtifacts;
+	}
+	
+	public boolean isDedupArtifacts() {
+		return dedupArtifacts;
+	}
+	
+	public void setAsyncArtifacts(boolean asyncArtifacts) {
+		this.asyncArtifacts = asyncArtifacts;
+	}
+	
+	public boolean isAsyncArtifacts() {
+		return asyncArtifacts;
+	}
+	
 	
 
+	/**
+	 * @return the session bound to the current thread (see SessionPool), or if there 
+	 * is none, the one created by newInstance.
+	 */
 	public static ExtendedSelenium getInstance(){
-		if (instance == null) throw new NullPointerException("Selenium instance not set yet.");
-		return instance;
+		ExtendedSelenium current = threadInstance.get();
+		if (current != null) return current;
+		current = instance;
+		if (current == null) throw new NullPointerException("Selenium instance not set yet.");
+		return current;
 	}
 	
 	public static void killInstance(){
+		threadInstance.remove();
 		instance = null;//
 	}
 	
+	/**
+	 * @return the session bound to the current thread, or null
+	 */
+	public static ExtendedSelenium getThreadInstance(){
+		return threadInstance.get();
+	}
+	
+	/**
+	 * Bind a session to the current thread, so that getInstance returns it.
+	 * @param selenium - the session, or null to unbind
+	 */
+	public static void setThreadInstance(ExtendedSelenium selenium){
+		if (selenium == null) threadInstance.remove();
+		else threadInstance.set(selenium);
+	}
+	
+	/**
+	 * Forget the given session, wherever it is bound.
+	 */
+	protected static void releaseInstance(ExtendedSelenium selenium){
+		if (threadInstance.get() == selenium) threadInstance.remove();
+		if (instance == selenium) instance = null;
+	}
+	
+	/**
+	 * Clears the state this instance keeps about the current test, so the browser
+	 * session can be reused by another test.
+	 */
+	public void resetSession(){
+		quietAfterCommand = -1;
+		budget = null;
+		attributeCache.nextEpoch();
+		attributeCache.resetCounters();
+		if (screenshotRing != null) screenshotRing.clear();
+	}
+	
+	/**
+	 * Cheap alternative to stop()/start() between tests: closes any popup windows, 
+	 * deletes the cookies of the current page and then opens resetUrl.
+	 * @param resetUrl - page to leave the browser on, eg "about:blank" or the 
+	 *   application's base URL.  If null, the browser stays where it is.
+	 */
+	public void resetSession(String resetUrl){
+		resetSession();
+		String[] windowNames = getAllWindowNames();
+		super.selectWindow("null");
+		String mainWindowName = getEval("this.browserbot.getCurrentWindow().name");
+		for (String windowName: windowNames) {
+			if (windowName == null || windowName.length() == 0 || windowName.equals(mainWindowName) || windowName.equals("null")) continue;
+			try {
+				super.selectWindow(windowName);
+				close();
+			}
+			catch (SeleniumException se) {
+				log.log(Level.FINER, "Could not close window '" + windowName + "'.", se);
+			}
+		}
+		super.selectWindow("null");
+		deleteAllVisibleCookies();
+		if (resetUrl != null) super.open(resetUrl);
+		attributeCache.nextEpoch();
+	}
+	
 	@Override
 	public void highlight(String locator) {
 		// TODO a decision to globally turn on/off highlight should be done here
@@ -948,8 +1801,60 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public static ExtendedSelenium newInstance(String serverHost, int serverPort, String browserStartCommand, String browserURL){
-		instance = new ExtendedSelenium(serverHost, serverPort, browserStartCommand, browserURL);
-		return instance;
+		ExtendedSelenium newInstance = new ExtendedSelenium(serverHost, serverPort, browserStartCommand, browserURL);
+		instance = newInstance;
+		threadInstance.set(newInstance);
+		return newInstance;
+	}
+	
+	/**
+	 * Wait until condition is true, as a single wait in the browser.
+	 * @param timeout - milliseconds
+	 */
+	public void waitFor(WaitCondition condition, long timeout, TimeUnit unit){
+		waitFor(condition, millis(timeout, unit));
+	}
+	
+	public void waitFor(WaitCondition condition, String timeout){
+		waitForDomCondition(condition.toString(), timeout);
+	}
+	
+	/**
+	 * Like waitForCondition, but with mutationWaits on, the condition is only 
+	 * evaluated again when the page has changed (see DomWait).  That saves evaluating
+	 * an expensive condition on every poll, it doesn't make the wait notice a change
+	 * sooner: the script is still polled by selenium RC's waitForCondition loop, and
+	 * a change that no MutationObserver sees (eg a css transition) is only noticed by
+	 * the recheck, up to 500ms later.
+	 * @param condition - a javascript expression, without a trailing semicolon
+	 * @param timeout - milliseconds
+	 */
+	public void waitForDomCondition(String condition, String timeout){
+		if (!mutationWaits) {
+			waitForCondition(condition + ";", timeout);
+			return;
+		}
+		String key = DomWait.nextKey();
+		try {
+			waitForCondition(DomWait.conditionScript(key, condition), timeout);
+		}
+		catch(SeleniumException e){
+			try {
+				getEval(DomWait.cleanupScript(key));
+			}
+			catch(SeleniumException ignored){
+				log.log(Level.FINEST, "Could not remove the observer of a timed out wait.", ignored);
+			}
+			throw e;
+		}
+	}
+	
+	public void setMutationWaits(boolean mutationWaits) {
+		this.mutationWaits = mutationWaits;
+	}
+	
+	public boolean isMutationWaits() {
+		return mutationWaits;
 	}
 	
 	public static String escape(String locator){
@@ -957,27 +1862,17 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 
 
+	/**
+	 * Wait for an element to exist and not be disabled (see WaitCondition.enabled).
+	 * @param millis - timeout in milliseconds
+	 */
+	public void waitForEnabled(String locator, String millis) {
+		log.info("Wait for enabled '" + locator + "', with timeout of " + millis + ".");
+		waitFor(WaitCondition.enabled(locator), millis);
+	}
+	
 	public void waitForEnabled(Element elem, String millis) {
-		// FIXME: Until the javascript portion of this method performs more consistently, 
-		//		  sleep is a better alternative.
-		/*
-		log.info("Wait for enabled'" + elem + "', with timeout of " + millis + ".");
-		String locatorStr = escape(elem.getLocator());
-		String script = "" //
-			+ "{var elem = selenium.browserbot.findElement(\""
-			+ locatorStr
-			+ "\");" //
-			+ "var canvas = selenium.browserbot.getUserWindow().isc.AutoTest.locateCanvasFromDOMElement(elem);" //
-			+ "!canvas.isDisabled();}";
-		sel().waitForCondition(script, millis);
-		*/
-		try {
-			Thread.currentThread().sleep(Integer.parseInt(millis));
-		}
-		catch (InterruptedException e) {
-			log.log(Level.INFO, "Thread sleep error: ", e);
-			e.printStackTrace();
-		}
+		waitForEnabled(elem.getLocator(), millis);
 	}
 
 	public void waitForEnabledAndClick(Element elem, String millis) {
@@ -990,9 +1885,108 @@ public class ExtendedSelenium extends DefaultSelenium implements ITestNGScreenCa
 	}
 	
 	public void ajaxWait(){
-		if (ajaxFinishedCondition != null) {
-			waitForCondition(ajaxFinishedCondition, WAITFORPAGE_TIMEOUT);			
+		ajaxWait(pageTimeout);
+	}
+	
+	public void ajaxWait(String timeout){
+		if (trackRequests && quietAfterCommand >= 0 && quietAfterCommand == getCommandMetrics().getTotalCount()) {
+			log.finest("The last action started no requests, not waiting for ajax.");
+		}
+		else {
+			if (trackRequests) {
+				waitForNetworkIdle(requestIdleMillis, timeout);
+			}
+			if (ajaxFinishedCondition != null) {
+				waitForCondition(ajaxFinishedCondition, timeout);			
+			}
+		}
+		quietAfterCommand = -1;
+	}
+	
+	/**
+	 * Wait until the page has had no network requests (XMLHttpRequest or fetch) in flight 
+	 * for idleMillis.
+	 * @param timeout - milliseconds
+	 */
+	public void waitForNetworkIdle(long idleMillis, String timeout){
+		waitForCondition(RequestTracker.idleScript(idleMillis), timeout);
+	}
+	
+	public void waitForNetworkIdle(long idleMillis){
+		waitForNetworkIdle(idleMillis, pageTimeout);
+	}
+	
+	public void setTrackRequests(boolean trackRequests) {
+		this.trackRequests = trackRequests;
+	}
+	
+	public boolean isTrackRequests() {
+		return trackRequests;
+	}
+	
+	/**
+	 * @param requestIdleMillis - how long the network has to be quiet before ajaxWait returns
+	 */
+	public void setRequestIdleMillis(long requestIdleMillis) {
+		this.requestIdleMillis = requestIdleMillis;
+	}
+	
+	/**
+	 * Keep the last screenshots in memory (see ScreenshotRing), so that testNGScreenCapture
+	 * can also write out the frames that led up to a failure.
+	 * @param maxBytes - memory budget for the frames, or 0 to turn this off
+	 * @param offHeap - keep the frames in direct buffers
+	 */
+	public void setScreenshotRing(long maxBytes, boolean offHeap) {
+		screenshotRing = maxBytes > 0 ? new ScreenshotRing(maxBytes, offHeap) : null;
+	}
+	
+	public ScreenshotRing getScreenshotRing() {
+		return screenshotRing;
+	}
+	
+	/**
+	 * Capture a screenshot of the browser viewport into the screenshot ring, if there is one.
+	 * @param label - what just happened, eg "click"
+	 */
+	public void recordFrame(String label) {
+		if (screenshotRing == null) return;
+		try {
+			screenshotRing.add(label, super.captureScreenshotToString());
+		}
+		catch (Exception e) {
+			log.log(Level.FINEST, "Could not capture screenshot frame.", e);
+		}
+	}
+	
+	/**
+	 * Write out the frames held in the screenshot ring, oldest first, and empty it.
+	 * @param filePrefix - full path of the files to write, "-frame-N.png" is appended
+	 * @return the files written (or being written, with async artifacts)
+	 */
+	protected List<File> persistFrames(String filePrefix) {
+		List<File> files = new ArrayList<File>();
+		if (screenshotRing == null) return files;
+		int n = 0;
+		for (final ScreenshotRing.Frame frame: screenshotRing.drain()) {
+			final File file = new File(filePrefix + "-frame-" + (++n) + ".png");
+			Callable<Object> write = new Callable<Object>() {
+				public Object call() throws Exception {
+					writeBase64(frame.getBase64(), file);
+					return null;
+				}
+			};
+			try {
+				if (asyncArtifacts) submitArtifact(file, write, null, null);
+				else write.call();
+				files.add(file);
+			}
+			catch (Exception e) {
+				log.log(Level.FINER, "Could not write screenshot frame " + file, e);
+			}
 		}
+		if (!files.isEmpty()) log.log(Level.FINE, "Wrote " + files.size() + " screenshot frames before the failure to " + filePrefix + "-frame-*.png");
+		return files;
 	}
 	
 	public static void main (String... args) {
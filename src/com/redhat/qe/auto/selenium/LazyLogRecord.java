@@ -0,0 +1,39 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A LogRecord whose message is only built when somebody asks for it, ie when
+ * a handler that is going to publish the record formats it.  This is used for
+ * messages that need a round trip to the browser to build (eg element
+ * descriptions), so that they cost nothing when the level is turned off.
+ * The message is built at most once.  Set the source with {@link #source(String, String)},
+ * so that it doesn't have to be inferred either.
+ */
+public abstract class LazyLogRecord extends SourcedLogRecord {
+
+	private static final long serialVersionUID = 3184721609538326915L;
+
+	private boolean resolved = false;
+
+	public LazyLogRecord(Level level, Logger logger, Object... parameters) {
+		super(level, null);
+		setLoggerName(logger.getName());
+		if (parameters.length > 0) setParameters(parameters);
+	}
+
+	/**
+	 * @return the log message.  Called at most once, from the thread that publishes the record.
+	 */
+	protected abstract String buildMessage();
+
+	@Override
+	public synchronized String getMessage() {
+		if (!resolved) {
+			resolved = true;
+			setMessage(buildMessage());
+		}
+		return super.getMessage();
+	}
+}
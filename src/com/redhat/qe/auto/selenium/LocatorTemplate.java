@@ -1,5 +1,7 @@
 package com.redhat.qe.auto.selenium;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +19,7 @@ public class LocatorTemplate implements LocatorStrategy {
 
 	protected String template = null;
 	protected String name = null;
+	protected CompiledTemplate compiledTemplate = null;
 	private static Logger log = Logger.getLogger(ExtendedSelenium.class.getName());
 	
 	/**
@@ -28,24 +31,37 @@ public class LocatorTemplate implements LocatorStrategy {
 	public LocatorTemplate(String name, String template){
 		this.name = name;
 		this.template = template;
+		if (template != null) this.compiledTemplate = new CompiledTemplate(template);
 	}
 	
 	@Override
 	public String getLocator(String... args) {
 		
-		String locator = getTemplate(args);
-		for (int i=args.length; i>0; i--) { // count backwards to prevent aggressive replacements on a two digit number 
-			locator = locator.replaceAll("\\$"+i, args[i-1]);
-		}		
+		CompiledTemplate compiled = getCompiledTemplate(args);
+		String locator = compiled.fill(args);
 		
 		// check for left over $d replacement strings (too few args)
-		if (locator.matches(".*\\$\\d.*")) {
+		if (compiled.hasUnfilledPlaceholders(args.length)) {
 			log.log(Level.FINE, "Template "+name+ " has left over replacement holders. ("+locator+")");
 			//System.out.println("Template "+name+ " has left over replacement holders. ("+locator+")");
 		}
 		
 		return locator;
 	}
+	
+	/**
+	 * @return the parsed form of getTemplate(args).  The template is only parsed
+	 * again if getTemplate returns something other than the template this 
+	 * LocatorTemplate was constructed with.
+	 */
+	protected CompiledTemplate getCompiledTemplate(String... args) {
+		String currentTemplate = getTemplate(args);
+		CompiledTemplate compiled = compiledTemplate;
+		if (compiled != null && compiled.template == currentTemplate) return compiled;
+		compiled = new CompiledTemplate(currentTemplate);
+		if (currentTemplate == this.template) compiledTemplate = compiled;
+		return compiled;
+	}
 
 	@Override
 	public String getName() {
@@ -57,6 +73,142 @@ public class LocatorTemplate implements LocatorStrategy {
 		return this.template;
 	}
 
+	/**
+	 * A template split into literal text and $d place holders, so that filling it 
+	 * in is a single append pass.  Arguments are inserted literally, so they may 
+	 * contain '$' or '\\'.
+	 * As with the original regex replacement, a place holder with more digits than 
+	 * there are arguments uses its longest prefix that names an argument 
+	 * (eg "$12" with 5 arguments becomes argument 1 followed by "2"), and a place holder
+	 * whose digits start with 0 (eg "$0", "$05") is never filled.
+	 */
+	protected static class CompiledTemplate {
+		protected final String template;
+		protected final String[] literals;        // literals[i] comes before placeholder i, the last one closes the template
+		protected final String[] placeholders;    // the digits of each place holder
+		protected final int[] argNumbers;         // the value of each place holder's digits
+		protected final int literalLength;
+		protected final int maxArgNumber;
+		protected final boolean hasZeroPlaceholder;  // a place holder starting with 0, which stays in the result
+		
+		protected CompiledTemplate(String template) {
+			this.template = template;
+			List<String> literalList = new ArrayList<String>();
+			List<String> placeholderList = new ArrayList<String>();
+			int length = template.length();
+			int literalStart = 0;
+			int literalChars = 0;
+			int i = 0;
+			while (i < length) {
+				if (template.charAt(i) == '$' && i + 1 < length && isDigit(template.charAt(i + 1))) {
+					int end = i + 1;
+					while (end < length && isDigit(template.charAt(end))) end++;
+					literalList.add(template.substring(literalStart, i));
+					literalChars += i - literalStart;
+					placeholderList.add(template.substring(i + 1, end));
+					literalStart = end;
+					i = end;
+				}
+				else i++;
+			}
+			literalList.add(template.substring(literalStart));
+			literalChars += length - literalStart;
+			
+			this.literals = literalList.toArray(new String[literalList.size()]);
+			this.placeholders = placeholderList.toArray(new String[placeholderList.size()]);
+			this.argNumbers = new int[placeholders.length];
+			int max = 0;
+			boolean zero = false;
+			for (int p = 0; p < placeholders.length; p++) {
+				if (placeholders[p].charAt(0) == '0') {
+					argNumbers[p] = 0;  // "$05" never matched "\\$5", so it isn't argument 5
+					zero = true;
+				}
+				else argNumbers[p] = parseArgNumber(placeholders[p], placeholders[p].length());
+				max = Math.max(max, argNumbers[p]);
+			}
+			this.literalLength = literalChars;
+			this.maxArgNumber = max;
+			this.hasZeroPlaceholder = zero;
+		}
+		
+		public String fill(String... args) {
+			StringBuilder sb = new StringBuilder(literalLength + 16 * placeholders.length);
+			boolean allFilled = args.length >= maxArgNumber;
+			for (int p = 0; p < placeholders.length; p++) {
+				sb.append(literals[p]);
+				int argNumber = argNumbers[p];
+				if (argNumber >= 1 && argNumber <= args.length) {
+					sb.append(args[argNumber - 1]);
+				}
+				else if (allFilled) {
+					sb.append('$').append(placeholders[p]); // $0, $05
+				}
+				else {
+					appendPrefixMatch(sb, placeholders[p], args);
+				}
+			}
+			sb.append(literals[placeholders.length]);
+			return sb.toString();
+		}
+		
+		/**
+		 * @return true if filling this template with argCount arguments leaves some $d place holders in the result
+		 */
+		public boolean hasUnfilledPlaceholders(int argCount) {
+			if (hasZeroPlaceholder) return true;
+			if (argCount >= maxArgNumber) return false;
+			for (int p = 0; p < placeholders.length; p++) {
+				if (prefixArgNumber(placeholders[p], argCount) == 0) return true;
+			}
+			return false;
+		}
+		
+		public int getMaxArgNumber() {
+			return maxArgNumber;
+		}
+		
+		private static void appendPrefixMatch(StringBuilder sb, String digits, String[] args) {
+			int prefixLength = prefixLength(digits, args.length);
+			if (prefixLength == 0) {
+				sb.append('$').append(digits);
+			}
+			else {
+				sb.append(args[parseArgNumber(digits, prefixLength) - 1]).append(digits, prefixLength, digits.length());
+			}
+		}
+		
+		private static int prefixArgNumber(String digits, int argCount) {
+			int prefixLength = prefixLength(digits, argCount);
+			return prefixLength == 0 ? 0 : parseArgNumber(digits, prefixLength);
+		}
+		
+		/**
+		 * @return the length of the longest prefix of digits that names one of argCount arguments, or 0
+		 */
+		private static int prefixLength(String digits, int argCount) {
+			if (digits.charAt(0) == '0') return 0;
+			for (int len = digits.length(); len > 0; len--) {
+				int value = parseArgNumber(digits, len);
+				if (value >= 1 && value <= argCount) return len;
+			}
+			return 0;
+		}
+		
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';  // like \\d, not Character.isDigit
+		}
+		
+		private static int parseArgNumber(String digits, int length) {
+			long value = 0;
+			for (int i = 0; i < length; i++) {
+				value = value * 10 + (digits.charAt(i) - '0');
+				if (value > Integer.MAX_VALUE) return Integer.MAX_VALUE;
+			}
+			return (int) value;
+		}
+	}
+	
 	public static void main (String[] args){
 		// this is just a developers test
 		LocatorTemplate locatorTemplate = new LocatorTemplate("table column row#","//table[@id='$1']//th[$2]/a[starts-with(.,'$3')]/../../../tr[$4]/td[$5]");
@@ -64,6 +216,27 @@ public class LocatorTemplate implements LocatorStrategy {
 		System.out.println("locatorTemplate.getLocator= "+locatorTemplate.getLocator("table id1","10","column name","5","10"));
 		System.out.println("locatorTemplate.getLocator= "+locatorTemplate.getLocator("table id2"));  // too few args
 		System.out.println("locatorTemplate.getLocator= "+locatorTemplate.getLocator("table id3","10","column name","5","10","too many args"));
+		System.out.println("locatorTemplate.getLocator= "+locatorTemplate.getLocator("table $1 \\ id4","10","column name","5","10"));  // args with special characters
 		
+		// compare with the regex replacement getLocator used to do (for args without '$' or '\\')
+		String[][] cases = {
+				{"//td[$1]/a[$2]", "x", "y"},
+				{"//td[$12]", "a", "b", "c", "d", "e"},
+				{"//td[$0]/a[$1]", "a"},
+				{"//td[$05]/a[$5]", "a", "b", "c", "d", "e"},
+				{"//td[$05]/a[$1]", "a"},
+				{"//td[$00]/a[$010]", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j"},
+				{"//td[$3]", "a"},
+				{"//td[$]$", "a"}};
+		for (String[] c: cases) {
+			String[] caseArgs = java.util.Arrays.copyOfRange(c, 1, c.length);
+			String expected = c[0];
+			for (int i=caseArgs.length; i>0; i--) expected = expected.replaceAll("\\$"+i, caseArgs[i-1]);
+			LocatorTemplate t = new LocatorTemplate("case", c[0]);
+			String actual = t.getLocator(caseArgs);
+			boolean unfilled = t.getCompiledTemplate(caseArgs).hasUnfilledPlaceholders(caseArgs.length);
+			boolean same = expected.equals(actual) && unfilled == expected.matches(".*\\$\\d.*");
+			System.out.println((same ? "same: " : "DIFFERENT: ") + c[0] + " -> " + actual + (same ? "" : " (expected " + expected + ")"));
+		}
 	}
 }
@@ -0,0 +1,191 @@
+package com.redhat.qe.auto.selenium;
+
+import com.thoughtworks.selenium.CommandProcessor;
+
+/**
+ * A CommandProcessor decorator that times every selenium RC command that
+ * passes through it and records the result in a {@link CommandMetrics}.
+ * It is always on, the only per-command overhead is two calls to
+ * System.nanoTime() and a few atomic increments.
+ */
+public class MetricsCommandProcessor implements CommandProcessor {
+
+	protected CommandProcessor delegate = null;
+	protected CommandMetrics metrics = null;
+
+	public MetricsCommandProcessor(CommandProcessor delegate) {
+		this(delegate, new CommandMetrics());
+	}
+
+	public MetricsCommandProcessor(CommandProcessor delegate, CommandMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public CommandMetrics getMetrics() {
+		return metrics;
+	}
+
+	public CommandProcessor getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public String getRemoteControlServerLocation() {
+		return delegate.getRemoteControlServerLocation();
+	}
+
+	@Override
+	public String doCommand(String commandName, String[] args) {
+		long start = System.nanoTime();
+		String result = null;
+		try {
+			result = delegate.doCommand(commandName, args);
+			return result;
+		}
+		finally {
+			record(commandName, args, start, length(result));
+		}
+	}
+
+	@Override
+	public void setExtensionJs(String extensionJs) {
+		delegate.setExtensionJs(extensionJs);
+	}
+
+	@Override
+	public void start() {
+		long start = System.nanoTime();
+		try {
+			delegate.start();
+		}
+		finally {
+			record("getNewBrowserSession", null, start, 0);
+		}
+	}
+
+	@Override
+	public void start(String optionsString) {
+		long start = System.nanoTime();
+		try {
+			delegate.start(optionsString);
+		}
+		finally {
+			record("getNewBrowserSession", null, start, 0);
+		}
+	}
+
+	@Override
+	public void start(Object optionsObject) {
+		long start = System.nanoTime();
+		try {
+			delegate.start(optionsObject);
+		}
+		finally {
+			record("getNewBrowserSession", null, start, 0);
+		}
+	}
+
+	@Override
+	public void stop() {
+		long start = System.nanoTime();
+		try {
+			delegate.stop();
+		}
+		finally {
+			record("testComplete", null, start, 0);
+		}
+	}
+
+	@Override
+	public String getString(String commandName, String[] args) {
+		long start = System.nanoTime();
+		String result = null;
+		try {
+			result = delegate.getString(commandName, args);
+			return result;
+		}
+		finally {
+			record(commandName, args, start, length(result));
+		}
+	}
+
+	@Override
+	public String[] getStringArray(String commandName, String[] args) {
+		long start = System.nanoTime();
+		String[] result = null;
+		try {
+			result = delegate.getStringArray(commandName, args);
+			return result;
+		}
+		finally {
+			record(commandName, args, start, length(result));
+		}
+	}
+
+	@Override
+	public Number getNumber(String commandName, String[] args) {
+		long start = System.nanoTime();
+		try {
+			return delegate.getNumber(commandName, args);
+		}
+		finally {
+			record(commandName, args, start, 8);
+		}
+	}
+
+	@Override
+	public Number[] getNumberArray(String commandName, String[] args) {
+		long start = System.nanoTime();
+		Number[] result = null;
+		try {
+			result = delegate.getNumberArray(commandName, args);
+			return result;
+		}
+		finally {
+			record(commandName, args, start, result == null ? 0 : 8L * result.length);
+		}
+	}
+
+	@Override
+	public boolean getBoolean(String commandName, String[] args) {
+		long start = System.nanoTime();
+		try {
+			return delegate.getBoolean(commandName, args);
+		}
+		finally {
+			record(commandName, args, start, 1);
+		}
+	}
+
+	@Override
+	public boolean[] getBooleanArray(String commandName, String[] args) {
+		long start = System.nanoTime();
+		boolean[] result = null;
+		try {
+			result = delegate.getBooleanArray(commandName, args);
+			return result;
+		}
+		finally {
+			record(commandName, args, start, result == null ? 0 : result.length);
+		}
+	}
+
+	protected void record(String commandName, String[] args, long startNanos, long bytesReceived) {
+		long elapsed = System.nanoTime() - startNanos;
+		metrics.record(commandName, elapsed, commandName.length() + length(args), bytesReceived);
+	}
+
+	private static long length(String s) {
+		return s == null ? 0 : s.length();
+	}
+
+	private static long length(String[] strings) {
+		if (strings == null) return 0;
+		long length = 0;
+		for (String s: strings) {
+			length += length(s);
+		}
+		return length;
+	}
+}
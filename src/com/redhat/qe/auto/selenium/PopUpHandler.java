@@ -5,71 +5,263 @@ package com.redhat.qe.auto.selenium;
 import java.awt.AWTException;
 import java.awt.Robot;
 import java.awt.event.KeyEvent;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.thoughtworks.selenium.CommandProcessor;
+
+/**
+ * Dismisses dialogs while a test step runs, timed by a scheduler thread shared by all
+ * handlers, so no thread sleeps on its behalf.
+ * <p>
+ * Given a selenium session, the handler consumes the kinds of dialog it was asked to
+ * (alerts, confirmations, prompts; none by default, so a test that checks getAlert
+ * itself still sees its alert).  The session is only ever used by the thread that
+ * drives it: when a poll is due, the handler asks the browser whether a dialog is
+ * waiting (one getEval) right before that thread's next command, through the
+ * session's DialogCommandProcessor.  The scheduler thread only decides when a poll
+ * is due, so no session can hold it up.  The polling interval starts short, doubles
+ * while nothing happens (up to maxDelay) and drops back after every dialog.
+ * <p>
+ * Without a session, it presses enter (or alt-tab, y on *iehta) with the AWT Robot
+ * rhn.pop times, every rhn.pop.interval (default 3s), if rhn.bvt is 0.
+ * <pre>
+ * PopUpHandler handler = new PopUpHandler(sel, PopUpHandler.Dialog.ALERT).start();
+ * try { ... } finally { handler.cancel(); }
+ * </pre>
+ */
 public class PopUpHandler implements Runnable{
 	private static Logger log = Logger.getLogger(PopUpHandler.class.getName());
 	private static PropertyReader pr = new PropertyReader();
+	private static ScheduledExecutorService scheduler = null;
 
+	/**
+	 * The kinds of dialog a handler can consume.
+	 */
+	public enum Dialog {
+		ALERT("hasAlerts", "getAlert"),
+		CONFIRMATION("hasConfirmations", "getConfirmation"),
+		PROMPT("hasPrompts", "getPrompt");
 
-	public void run() {
-		
-//		InputStream in = null;
-//		try {
-//				File file = new File("src/main/resources/localhost-settings.properties");
-//				if (file.exists())
-//					System.out.println("found properties");
-//				else
-//					System.out.println("did NOT find properties");
-//		}
-//		catch(Exception e){
-//			e.printStackTrace();
-//		}
-		
-		PropertyReader.loadProperties();
-		
-		if(pr.getProperty("rhn.bvt").equalsIgnoreCase("0")){
-		
-		Robot robot = null;
-		try {
-			robot = new Robot();
-		} catch (AWTException e1) {
-			e1.printStackTrace();
+		protected final String browserbotCheck;
+		protected final String command;
+
+		Dialog(String browserbotCheck, String command) {
+			this.browserbotCheck = browserbotCheck;
+			this.command = command;
+		}
+	}
+
+	protected final ExtendedSelenium selenium;
+	protected final Set<Dialog> dialogs;
+	protected final String waitingScript;
+	protected volatile boolean pollDue = false;
+	protected long minDelay = 100;
+	protected long maxDelay = 2000;
+	protected long delay = minDelay;
+	protected int remaining;
+	protected final AtomicInteger dismissed = new AtomicInteger();
+	protected volatile boolean cancelled = false;
+	protected volatile ScheduledFuture<?> next = null;
+	protected Robot robot = null;
+
+	/**
+	 * A handler that presses keys with the AWT Robot, as configured by rhn.pop.
+	 */
+	public PopUpHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param selenium - the session whose dialogs to dismiss, or null to use the AWT Robot
+	 * @param dialogs - the kinds of dialog to consume
+	 */
+	public PopUpHandler(ExtendedSelenium selenium, Dialog... dialogs) {
+		this.selenium = selenium;
+		this.dialogs = dialogs.length == 0 ? EnumSet.noneOf(Dialog.class) : EnumSet.of(dialogs[0], dialogs);
+		this.remaining = selenium == null ? pr.getPropertyAsInt("rhn.pop", 0) : Integer.MAX_VALUE;
+		StringBuilder script = new StringBuilder("var b = this.browserbot; ''");
+		for (Dialog dialog: this.dialogs) {
+			script.append(" + (b.").append(dialog.browserbotCheck).append("() ? '").append(dialog.ordinal()).append("' : '')");
+		}
+		this.waitingScript = script.append(";").toString();
+	}
+
+	/**
+	 * @return the scheduler all handlers share (one daemon thread)
+	 */
+	protected static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "popup-handler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		//rh.getNumberOfPopUps() replaces 1
-		//FIXME 
-		for (int i = 0; i < pr.getPropertyAsInt("rhn.pop",0); i++) {
-			try {
-				Thread.sleep(3000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		return scheduler;
+	}
+
+	/**
+	 * Start polling for dialogs on the shared scheduler.
+	 * @return this
+	 */
+	public PopUpHandler start() {
+		if (selenium == null) {
+			if (!pr.getProperty("rhn.bvt").equalsIgnoreCase("0")) {
+				log.finest("pop up handler disabled");
+				return this;
 			}
-			//HarnessConfiguration.BROWSER_TYPE.equalsIgnoreCase("*iehta")
-			//FIXME - if windows
-			if(pr.getProperty("selenium.browser").equalsIgnoreCase("*iehta")){
-				robot.keyPress(KeyEvent.VK_ALT);
-				robot.keyPress(KeyEvent.VK_TAB);
-				robot.keyRelease(KeyEvent.VK_TAB);
-				robot.keyRelease(KeyEvent.VK_ALT);
-				robot.keyPress(KeyEvent.VK_Y);
-				robot.keyRelease(KeyEvent.VK_Y);
+			delay = pr.getPropertyAsDuration("rhn.pop.interval", 3000, TimeUnit.MILLISECONDS);
+		}
+		else {
+			if (dialogs.isEmpty()) {
+				log.fine("No kind of dialog to dismiss, pop up handler not started.");
+				return this;
 			}
-			else{
-			robot.keyPress(KeyEvent.VK_ENTER);
-			robot.keyRelease(KeyEvent.VK_ENTER);
+			DialogCommandProcessor processor = selenium.getDialogProcessor();
+			if (processor.getHandler() != null && processor.getHandler() != this) {
+				log.warning("Replacing the pop up handler of this session, cancel it when its step ends.");
 			}
-			int num = i + 1;
-			//System.out.println("<li>"+ rh.getTime()+"     hit enter key " + num + " times");
-			log.info("hit enter key " + num + " times");
+			processor.setHandler(this);
+		}
+		schedule();
+		return this;
+	}
 
-				}
+	/**
+	 * Same as start(), for callers that ran the handler on a thread of its own.
+	 */
+	public void run() {
+		start();
+	}
+
+	/**
+	 * Stop polling, eg when the test step ends.
+	 */
+	public void cancel() {
+		cancelled = true;
+		ScheduledFuture<?> scheduled = next;
+		if (scheduled != null) scheduled.cancel(false);
+		if (selenium != null) {
+			DialogCommandProcessor processor = selenium.getDialogProcessor();
+			if (processor.getHandler() == this) processor.setHandler(null);
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return how many dialogs have been dismissed (or key presses sent)
+	 */
+	public int getDismissedCount() {
+		return dismissed.get();
+	}
+
+	/**
+	 * @param minDelay - polling interval right after a dialog, in milliseconds
+	 * @param maxDelay - longest polling interval while nothing happens, in milliseconds
+	 */
+	public void setDelays(long minDelay, long maxDelay) {
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.delay = minDelay;
+	}
+
+	protected void schedule() {
+		if (cancelled || remaining <= 0) return;
+		next = getScheduler().schedule(new Runnable() {
+			public void run() {
+				poll();
 			}
-			else{
-				log.finest("pop up handler disabled");
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * On the scheduler thread: with a session, only mark a poll as due (see
+	 * beforeCommand), without one, press the key.
+	 */
+	protected void poll() {
+		if (cancelled) return;
+		if (selenium != null) {
+			pollDue = true;
+			return;  // rescheduled once the poll has run, with the adjusted delay
+		}
+		try {
+			pressKey();
+		}
+		catch (Exception e) {
+			log.log(Level.FINER, "Pop up handler poll failed.", e);
+		}
+		schedule();
+	}
+
+	/**
+	 * Called by the session's DialogCommandProcessor, on the thread driving the
+	 * session, right before each of its commands.  Polls for dialogs if a poll is due.
+	 * @param processor - where to send the handler's own commands
+	 */
+	protected void beforeCommand(CommandProcessor processor) {
+		if (!pollDue || cancelled) return;
+		pollDue = false;
+		try {
+			delay = dismissDialogs(processor) ? minDelay : Math.min(maxDelay, delay * 2);
+		}
+		catch (Exception e) {
+			log.log(Level.FINER, "Pop up handler poll failed.", e);
+		}
+		schedule();
+	}
+
+	/**
+	 * @return true if any dialog was dismissed
+	 */
+	protected boolean dismissDialogs(CommandProcessor processor) {
+		String waiting = processor.getString("getEval", new String[] {waitingScript});
+		if (waiting.length() == 0) return false;
+		for (Dialog dialog: dialogs) {
+			if (waiting.indexOf(Character.forDigit(dialog.ordinal(), 10)) >= 0) {
+				dismissed(dialog, processor.getString(dialog.command, new String[0]));
 			}
 		}
-		
+		return true;
+	}
 
+	protected void dismissed(Dialog dialog, String message) {
+		remaining--;
+		log.info("Dismissed " + dialog.name().toLowerCase() + ": '" + message + "'");
+		dismissed.incrementAndGet();
+	}
+
+	protected void pressKey() throws AWTException {
+		if (robot == null) robot = new Robot();
+		//HarnessConfiguration.BROWSER_TYPE.equalsIgnoreCase("*iehta")
+		//FIXME - if windows
+		if(pr.getProperty("selenium.browser").equalsIgnoreCase("*iehta")){
+			robot.keyPress(KeyEvent.VK_ALT);
+			robot.keyPress(KeyEvent.VK_TAB);
+			robot.keyRelease(KeyEvent.VK_TAB);
+			robot.keyRelease(KeyEvent.VK_ALT);
+			robot.keyPress(KeyEvent.VK_Y);
+			robot.keyRelease(KeyEvent.VK_Y);
+		}
+		else{
+			robot.keyPress(KeyEvent.VK_ENTER);
+			robot.keyRelease(KeyEvent.VK_ENTER);
+		}
+		remaining--;
+		log.info("hit enter key " + dismissed.incrementAndGet() + " times");
+	}
 
-}
\ No newline at end of file
+}
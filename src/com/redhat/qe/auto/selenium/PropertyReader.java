@@ -4,34 +4,186 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-
+/**
+ * Reads &lt;harness.environment&gt;-settings.properties.  The settings are kept in an
+ * immutable {@link Snapshot}, with the numeric, boolean and duration values already
+ * parsed, and published atomically, so any number of threads can read them without
+ * locking.  When the file changes on disk, a WatchService thread loads a new snapshot.
+ * Keys that are not in the file fall back to the system properties.
+ */
 public class PropertyReader extends Properties {
-	
-	private static Properties properties;
-	
 
+	private static Logger log = Logger.getLogger(PropertyReader.class.getName());
+	private static final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>();
+	private static Thread watcher = null;
+
+	/**
+	 * One immutable version of the settings.
+	 */
+	public static final class Snapshot {
+		private static final Pattern DURATION = Pattern.compile("(\\d+)\\s*(ms|s|m|h|d)?", Pattern.CASE_INSENSITIVE);
+
+		private final File source;
+		private final Map<String, String> values;
+		private final Map<String, Long> longs = new HashMap<String, Long>();
+		private final Map<String, Boolean> booleans = new HashMap<String, Boolean>();
+		private final Map<String, Long> durations = new HashMap<String, Long>();
+
+		protected Snapshot(File source, Properties properties) {
+			this.source = source;
+			Map<String, String> map = new HashMap<String, String>();
+			for (String key: properties.stringPropertyNames()) {
+				String value = properties.getProperty(key);
+				map.put(key, value);
+				String trimmed = value.trim();
+				try {
+					longs.put(key, Long.parseLong(trimmed));
+				}
+				catch (NumberFormatException nfe) {
+					// not a number
+				}
+				if (trimmed.equalsIgnoreCase("true") || trimmed.equalsIgnoreCase("false")) {
+					booleans.put(key, Boolean.valueOf(trimmed));
+				}
+				Long millis = parseDuration(trimmed);
+				if (millis != null) durations.put(key, millis);
+			}
+			this.values = Collections.unmodifiableMap(map);
+		}
+
+		public String getProperty(String key, String defaultValue) {
+			String value = values.get(key);
+			return value != null ? value : System.getProperty(key, defaultValue);
+		}
+
+		/**
+		 * @return the value as an int, defaultValue if it isn't set, or -1 if it isn't a number
+		 */
+		public int getInt(String key, int defaultValue) {
+			long value = getLong(key, defaultValue);
+			return value == (int) value ? (int) value : -1;
+		}
+
+		/**
+		 * @return the value as a long, defaultValue if it isn't set, or -1 if it isn't a number
+		 */
+		public long getLong(String key, long defaultValue) {
+			Long cached = longs.get(key);
+			if (cached != null) return cached.longValue();
+			String value = getProperty(key, null);
+			if (value == null) return defaultValue;
+			try {
+				return Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException nfe) {
+				return -1;
+			}
+		}
+
+		/**
+		 * @return true or false if the value is "true" or "false" (ignoring case), otherwise defaultValue
+		 */
+		public boolean getBoolean(String key, boolean defaultValue) {
+			Boolean cached = booleans.get(key);
+			if (cached != null) return cached.booleanValue();
+			String value = getProperty(key, null);
+			if (value == null) return defaultValue;
+			value = value.trim();
+			if (value.equalsIgnoreCase("true")) return true;
+			if (value.equalsIgnoreCase("false")) return false;
+			return defaultValue;
+		}
+
+		/**
+		 * @param key - a duration like 500ms, 30s, 5m, 2h, 1d, or a number of milliseconds
+		 * @return the duration in the requested unit, defaultValue if it isn't set or can't be parsed
+		 */
+		public long getDuration(String key, long defaultValue, TimeUnit unit) {
+			Long millis = durations.get(key);
+			if (millis == null) {
+				String value = values.containsKey(key) ? null : System.getProperty(key);
+				millis = value == null ? null : parseDuration(value.trim());
+			}
+			return millis == null ? defaultValue : unit.convert(millis, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * @return the settings file this was read from, or null
+		 */
+		public File getSource() {
+			return source;
+		}
+
+		/**
+		 * @return the settings from the file (without the system properties)
+		 */
+		public Map<String, String> getValues() {
+			return values;
+		}
+
+		private static Long parseDuration(String value) {
+			Matcher m = DURATION.matcher(value);
+			if (!m.matches()) return null;
+			long amount;
+			try {
+				amount = Long.parseLong(m.group(1));
+			}
+			catch (NumberFormatException nfe) {
+				return null;
+			}
+			String unit = m.group(2) == null ? "ms" : m.group(2).toLowerCase();
+			if (unit.equals("s")) return TimeUnit.SECONDS.toMillis(amount);
+			if (unit.equals("m")) return TimeUnit.MINUTES.toMillis(amount);
+			if (unit.equals("h")) return TimeUnit.HOURS.toMillis(amount);
+			if (unit.equals("d")) return TimeUnit.DAYS.toMillis(amount);
+			return amount;
+		}
+	}
+
+	/**
+	 * Read the settings file again, and publish the result to all readers.
+	 */
 	protected static void loadProperties() {
-		properties = new Properties();
+		Properties properties = new Properties();
 		String path = "/"
 				+ System.getProperty("harness.environment", "localhost")
 				+ "-settings.properties";
 		String mydir = System.getProperty("user.dir");
 		InputStream in = null;
+		File source = null;
 		try {
 			// try class path
 			// in = HarnessConfiguration.class.getResourceAsStream(path);
 			if (in == null) {
 				//FIXME //wes needs to change this.. on hudson side too.
 				File fileBVT = new File("/home/hudson/automated-testing"
-						+ path);			
+						+ path);
 				File file = new File(mydir + path);
 				if (fileBVT.exists()) {
+					source = fileBVT;
 					in = new FileInputStream(fileBVT);
 					System.out.println("found BVT properties");
-				} else
+				} else {
+					source = file;
 					in = new FileInputStream(file);
+				}
 			}
 			if (in != null) {
 				properties.load(in);
@@ -47,29 +199,93 @@ public class PropertyReader extends Properties {
 				}
 			}
 		}
+		current.set(new Snapshot(source, properties));
+		watch(source);
 	}
-	
+
+	/**
+	 * @return the current settings; keep a reference to it to read several values
+	 * that are consistent with each other
+	 */
+	public static Snapshot snapshot() {
+		Snapshot snapshot = current.get();
+		if (snapshot == null) {
+			synchronized (PropertyReader.class) {
+				snapshot = current.get();
+				if (snapshot == null) {
+					loadProperties();
+					snapshot = current.get();
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reload the settings whenever the file is written (or created), on a daemon thread.
+	 */
+	protected static synchronized void watch(final File file) {
+		if (watcher != null || file == null) return;
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir == null || !dir.isDirectory()) return;
+		final Path fileName = file.toPath().getFileName();
+		final WatchService watchService;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		}
+		catch (IOException e) {
+			log.log(Level.FINE, "Can't watch " + file + " for changes, settings won't be reloaded.", e);
+			return;
+		}
+		watcher = new Thread("property-reader-watcher") {
+			public void run() {
+				while (true) {
+					WatchKey key;
+					try {
+						key = watchService.take();
+					}
+					catch (InterruptedException ie) {
+						return;
+					}
+					boolean changed = false;
+					for (WatchEvent<?> event: key.pollEvents()) {
+						if (fileName.equals(event.context())) changed = true;
+					}
+					if (changed) {
+						log.log(Level.FINE, "Reloading " + file);
+						loadProperties();
+					}
+					if (!key.reset()) return;
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
 	public String getProperty(String key) {
 		return getProperty(key, "");
 	}
-	
+
 	public String getProperty(String key, String defaultValue) {
-		if (properties == null) {
-			loadProperties();
-		}
-		return properties.getProperty(key, System
-				.getProperty(key, defaultValue));
+		return snapshot().getProperty(key, defaultValue);
 	}
-	
+
 	public  int getPropertyAsInt(String key, int defaultValue) {
-		int intValue = -1;
-		try {
-			intValue = Integer.parseInt(getProperty(key, String.valueOf(
-					defaultValue).trim()));
-		} catch (NumberFormatException ex) {
-			ex.printStackTrace();
-		}
-		return intValue;
+		return snapshot().getInt(key, defaultValue);
+	}
+
+	public long getPropertyAsLong(String key, long defaultValue) {
+		return snapshot().getLong(key, defaultValue);
+	}
+
+	public boolean getPropertyAsBoolean(String key, boolean defaultValue) {
+		return snapshot().getBoolean(key, defaultValue);
+	}
+
+	public long getPropertyAsDuration(String key, long defaultValue, TimeUnit unit) {
+		return snapshot().getDuration(key, defaultValue, unit);
 	}
 
 }
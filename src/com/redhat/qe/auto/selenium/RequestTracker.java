@@ -0,0 +1,78 @@
+package com.redhat.qe.auto.selenium;
+
+/**
+ * Builds scripts that count the page's network requests, whatever ajax framework
+ * (if any) it uses.  The tracker wraps XMLHttpRequest.send and window.fetch in the
+ * application window, and keeps the number of requests in flight, the number started
+ * so far and the time of the last request activity in window.extendedSeleniumRequests.
+ * <p>
+ * Every script installs the tracker if the page doesn't have it yet, so a newly loaded
+ * page is instrumented by the first wait (or fused action) on it.  Requests the page
+ * started before that are not seen.
+ */
+public class RequestTracker {
+
+	/**
+	 * @param selenium - how the script refers to the selenium object: "selenium" in
+	 * waitForCondition scripts, "this" in getEval scripts
+	 * @return a javascript expression that installs the tracker if needed and evaluates to it
+	 */
+	public static String tracker(String selenium) {
+		return "(function(win) { " +
+			"var t = win.extendedSeleniumRequests; " +
+			"if (t) return t; " +
+			"t = win.extendedSeleniumRequests = { inflight: 0, started: 0, last: new Date().getTime() }; " +
+			"var start = function() { t.inflight++; t.started++; t.last = new Date().getTime(); }; " +
+			"var done = function() { t.inflight = Math.max(0, t.inflight - 1); t.last = new Date().getTime(); }; " +
+			"var X = win.XMLHttpRequest; " +
+			"if (X && X.prototype && X.prototype.send) { " +
+				"var send = X.prototype.send; " +
+				"X.prototype.send = function() { " +
+					"var xhr = this, finished = false; " +
+					"var finish = function() { if (!finished) { finished = true; done(); } }; " +
+					"start(); " +
+					"if (xhr.addEventListener) { " +
+						"xhr.addEventListener('readystatechange', function() { if (xhr.readyState == 4) finish(); }, false); " +
+						"xhr.addEventListener('loadend', finish, false); " +
+					"} " +
+					"try { return send.apply(xhr, arguments); } catch (e) { finish(); throw e; } " +
+				"}; " +
+			"} " +
+			"if (win.fetch) { " +
+				"var fetch = win.fetch; " +
+				"win.fetch = function() { " +
+					"start(); " +
+					"var p; " +
+					"try { p = fetch.apply(win, arguments); } catch (e) { done(); throw e; } " +
+					"return p.then(function(r) { done(); return r; }, function(e) { done(); throw e; }); " +
+				"}; " +
+			"} " +
+			"return t; " +
+		"})(" + selenium + ".browserbot.getCurrentWindow())";
+	}
+
+	/**
+	 * @return a waitForCondition script that is true once no request has been in
+	 * flight for idleMillis
+	 */
+	public static String idleScript(long idleMillis) {
+		return "var requests = " + tracker("selenium") + "; " +
+			"requests.inflight == 0 && new Date().getTime() - requests.last >= " + idleMillis + ";";
+	}
+
+	/**
+	 * @return statements for a fused action script (see ExtendedSelenium.fusedActionScript),
+	 * to run before the action
+	 */
+	public static String beforeAction() {
+		return "var requests = " + tracker("this") + "; var requestsBefore = requests.started;";
+	}
+
+	/**
+	 * @return statements that add requestsStarted (by the action) and requestsInFlight
+	 * to the fused action's result
+	 */
+	public static String afterAction() {
+		return "str = str + 'requestsStarted=' + (requests.started - requestsBefore) + '\\n' + 'requestsInFlight=' + requests.inflight + '\\n';";
+	}
+}
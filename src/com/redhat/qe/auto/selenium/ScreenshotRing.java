@@ -0,0 +1,155 @@
+package com.redhat.qe.auto.selenium;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent screenshots in memory, still base64 encoded as they came
+ * from selenium, so they only have to be decoded and written to disk if a test
+ * fails.  The ring is bounded by the total size of the frames it holds: adding a
+ * frame evicts the oldest ones until everything fits.  Frames can be kept off heap
+ * (in direct buffers) to keep big captures out of the garbage collector's way.
+ */
+public class ScreenshotRing {
+
+	/**
+	 * One captured screenshot.
+	 */
+	public static class Frame {
+		protected final long timestamp;
+		protected final String label;
+		protected final CharSequence base64;
+		protected final int size;
+
+		protected Frame(String label, CharSequence base64, int size) {
+			this.timestamp = System.currentTimeMillis();
+			this.label = label;
+			this.base64 = base64;
+			this.size = size;
+		}
+
+		public long getTimestamp() { return timestamp; }
+		public String getLabel() { return label; }
+		/** the screenshot, base64 encoded */
+		public CharSequence getBase64() { return base64; }
+		/** bytes counted against the ring's budget */
+		public int getSize() { return size; }
+	}
+
+	/**
+	 * Read only view of ascii text stored in a ByteBuffer.
+	 */
+	protected static class AsciiSequence implements CharSequence {
+		protected final ByteBuffer buffer;
+
+		protected AsciiSequence(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int length() {
+			return buffer.limit();
+		}
+
+		public char charAt(int index) {
+			return (char) (buffer.get(index) & 0xff);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			ByteBuffer slice = buffer.duplicate();
+			slice.position(start);
+			slice.limit(end);
+			return new AsciiSequence(slice.slice());
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder(length());
+			return sb.append(this).toString();
+		}
+	}
+
+	protected final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+	protected final long maxBytes;
+	protected final boolean offHeap;
+	protected long totalBytes = 0;
+
+	/**
+	 * @param maxBytes - total size of the frames kept
+	 * @param offHeap - if true, copy frames into direct buffers instead of keeping the Strings
+	 */
+	public ScreenshotRing(long maxBytes, boolean offHeap) {
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Add a frame, evicting the oldest frames if the budget is exceeded.  A frame
+	 * bigger than the whole budget is not kept.
+	 * @param label - a short description of when the frame was taken
+	 * @param base64 - the screenshot as returned by captureScreenshotToString
+	 */
+	public void add(String label, String base64) {
+		int size = offHeap ? base64.length() : 2 * base64.length() + 40;  // String chars are 2 bytes
+		if (size > maxBytes) return;
+		Frame frame;
+		if (offHeap) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(base64.length());
+			for (int i = 0; i < base64.length(); i++) {
+				buffer.put((byte) base64.charAt(i));
+			}
+			buffer.flip();
+			frame = new Frame(label, new AsciiSequence(buffer), size);
+		}
+		else frame = new Frame(label, base64, size);
+
+		synchronized (frames) {
+			frames.addLast(frame);
+			totalBytes += size;
+			while (totalBytes > maxBytes) {
+				totalBytes -= frames.removeFirst().size;
+			}
+		}
+	}
+
+	/**
+	 * @return the frames currently held, oldest first
+	 */
+	public List<Frame> getFrames() {
+		synchronized (frames) {
+			return new ArrayList<Frame>(frames);
+		}
+	}
+
+	/**
+	 * Remove and return all frames, oldest first.
+	 */
+	public List<Frame> drain() {
+		synchronized (frames) {
+			List<Frame> drained = new ArrayList<Frame>(frames);
+			frames.clear();
+			totalBytes = 0;
+			return drained;
+		}
+	}
+
+	public void clear() {
+		drain();
+	}
+
+	public long getTotalBytes() {
+		synchronized (frames) {
+			return totalBytes;
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int size() {
+		synchronized (frames) {
+			return frames.size();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides where a session's screenshots and html captures go, and what they are called.
+ * Each ExtendedSelenium has its own, so parallel sessions never share directories
+ * or names: a file name is the capture time, the session id and a sequence number
+ * that only goes up, eg 20121024-153012345-4711s3-0007.png.  The session id is made
+ * of the process id and a counter, so sessions in different JVMs writing to the same
+ * directory don't collide either.
+ */
+public class SessionArtifacts {
+
+	private static final AtomicLong sessionCounter = new AtomicLong();
+	private static final String processId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+	private static final ThreadLocal<DateFormat> timestampFormat = new ThreadLocal<DateFormat>() {
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyyMMdd-HHmmssSSS");
+		}
+	};
+
+	protected final String sessionId;
+	protected final AtomicLong sequence = new AtomicLong();
+	protected volatile boolean sessionDirectories = Boolean.getBoolean("selenium.artifacts.session.dirs");
+	protected volatile File fallbackDir = new File("/tmp");
+
+	public SessionArtifacts() {
+		this(processId + "s" + sessionCounter.incrementAndGet());
+	}
+
+	public SessionArtifacts(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * @return a new, unique file name for this session
+	 * @param suffix - appended to the name, eg "-MyTest.testLogin.png" or ".html"
+	 */
+	public String nextName(String suffix) {
+		return timestampFormat.get().format(new Date()) + "-" + sessionId + "-"
+			+ String.format("%04d", sequence.incrementAndGet()) + suffix;
+	}
+
+	/**
+	 * @return the directory this session writes to under dirName (dirName itself, or
+	 * a subdirectory named after the session if session directories are on), created
+	 * if needed
+	 */
+	public File directory(String dirName) {
+		File dir = sessionDirectories ? new File(dirName, sessionId) : new File(dirName);
+		if (!dir.isDirectory()) dir.mkdirs();
+		return dir;
+	}
+
+	/**
+	 * @return a new, unique file in this session's directory under dirName
+	 */
+	public File nextFile(String dirName, String suffix) {
+		return new File(directory(dirName), nextName(suffix));
+	}
+
+	/**
+	 * @return where captures go when the requested directory can't be written
+	 */
+	public File getFallbackDirectory() {
+		return fallbackDir;
+	}
+
+	public void setFallbackDirectory(File fallbackDir) {
+		this.fallbackDir = fallbackDir;
+	}
+
+	/**
+	 * @param sessionDirectories - if true, each session writes into its own
+	 * subdirectory (also set by selenium.artifacts.session.dirs)
+	 */
+	public void setSessionDirectories(boolean sessionDirectories) {
+		this.sessionDirectories = sessionDirectories;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @return how many names this session has handed out
+	 */
+	public long getSequence() {
+		return sequence.get();
+	}
+}
@@ -0,0 +1,419 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of started ExtendedSelenium sessions, so that one JVM can drive several
+ * browsers at once (eg parallel TestNG methods).  A thread leases a session, which
+ * binds it to that thread, so ExtendedSelenium.getInstance() returns it for the rest
+ * of the test.  When the test is done the session is released, reset and kept for the
+ * next lease.  At most maxSize sessions exist at a time, and sessions that stay idle
+ * longer than maxIdle are stopped.  A leased session that the test stops itself
+ * (ExtendedSelenium.stop()) gives its slot back to the pool.
+ * <p>
+ * The pool can also be kept warm: with setWarmSize(n), n started sessions are kept
+ * ready, started on background threads before anyone asks for them.  Between tests
+ * a session is only reset (popup windows closed, cookies deleted, reset URL opened)
+ * rather than restarted, and it is replaced once it has run maxCommands selenium
+ * commands or is older than maxAge.
+ * <br> Example:
+ * <br> SessionPool pool = new SessionPool(factory, 4);
+ * <br> pool.lease();   // in @BeforeMethod
+ * <br> ExtendedSelenium.getInstance().click(...);
+ * <br> pool.release(); // in @AfterMethod
+ */
+public class SessionPool {
+
+	private static Logger log = Logger.getLogger(SessionPool.class.getName());
+
+	/**
+	 * Creates new, not yet started, sessions for the pool.
+	 */
+	public interface SessionFactory {
+		public ExtendedSelenium newSession();
+	}
+
+	protected static class IdleSession {
+		protected final ExtendedSelenium session;
+		protected final long idleSince;
+
+		protected IdleSession(ExtendedSelenium session) {
+			this.session = session;
+			this.idleSince = System.currentTimeMillis();
+		}
+	}
+
+	protected SessionFactory factory = null;
+	protected int maxSize;
+	protected long maxIdleMillis = TimeUnit.MINUTES.toMillis(10);
+	protected long leaseTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+	protected Semaphore permits = null;
+	protected LinkedBlockingDeque<IdleSession> idle = new LinkedBlockingDeque<IdleSession>();
+	protected volatile boolean shutdown = false;
+	
+	protected AtomicInteger sessionCount = new AtomicInteger();   // started, starting, leased or idle
+	protected Set<ExtendedSelenium> leased = Collections.newSetFromMap(new ConcurrentHashMap<ExtendedSelenium, Boolean>());
+	protected ThreadLocal<ExtendedSelenium> threadLease = new ThreadLocal<ExtendedSelenium>();
+	protected volatile int warmSize = 0;
+	protected volatile long maxCommands = 0;
+	protected volatile long maxAgeMillis = 0;
+	protected volatile String resetUrl = "about:blank";
+	protected ExecutorService starter = null;
+
+	/**
+	 * @param factory - creates the sessions
+	 * @param maxSize - the maximum number of sessions (leased or idle) at any time
+	 */
+	public SessionPool(SessionFactory factory, int maxSize) {
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * A pool of sessions that all connect to the same selenium server.
+	 */
+	public SessionPool(final String serverHost, final int serverPort, final String browserStartCommand,
+			final String browserURL, int maxSize) {
+		this(new SessionFactory() {
+			public ExtendedSelenium newSession() {
+				return new ExtendedSelenium(serverHost, serverPort, browserStartCommand, browserURL);
+			}
+		}, maxSize);
+	}
+
+	/**
+	 * Lease a session and bind it to the current thread.  Blocks up to the lease
+	 * timeout if all sessions are in use.
+	 */
+	public ExtendedSelenium lease() {
+		return lease(leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @throws IllegalStateException if the current thread still holds a started session 
+	 *  from this pool
+	 */
+	public ExtendedSelenium lease(long timeout, TimeUnit unit) {
+		if (shutdown) throw new IllegalStateException("Session pool has been shut down.");
+		ExtendedSelenium current = threadLease.get();
+		if (current != null) {
+			if (leased.contains(current) && current.isStarted()) {
+				throw new IllegalStateException("Thread " + Thread.currentThread().getName() + " already holds a session, release it before leasing another.");
+			}
+			release(current);  // stopped meanwhile
+		}
+		try {
+			if (!permits.tryAcquire(timeout, unit)) {
+				throw new RuntimeException("No selenium session became available within " + unit.toMillis(timeout) + "ms (pool size " + maxSize + ").");
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a selenium session.", ie);
+		}
+		try {
+			evictIdle();
+			ExtendedSelenium session = takeIdle();
+			if (session == null) {
+				if (reserveSession()) {
+					session = startReservedSession();
+				}
+				else {
+					// every slot is taken by an idle or warming session, wait for one
+					IdleSession idleSession = idle.pollFirst(timeout, unit);
+					if (idleSession == null) throw new RuntimeException("No selenium session became available within " + unit.toMillis(timeout) + "ms (pool size " + maxSize + ").");
+					session = idleSession.session;
+				}
+			}
+			leased.add(session);
+			session.pool = this;
+			threadLease.set(session);
+			ExtendedSelenium.setThreadInstance(session);
+			return session;
+		}
+		catch (InterruptedException ie) {
+			permits.release();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a selenium session.", ie);
+		}
+		catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		finally {
+			warmUp();
+		}
+	}
+	
+	/**
+	 * Start sessions in the background until warmSize sessions are idle (or
+	 * the pool is full).
+	 */
+	public void warmUp() {
+		while (!shutdown && reserveWarmSession()) {
+			try {
+				getStarter().execute(new Runnable() {
+					public void run() {
+						try {
+							ExtendedSelenium session = startReservedSession();
+							if (shutdown) discard(session);
+							else idle.addLast(new IdleSession(session));
+						}
+						catch (RuntimeException e) {
+							log.log(Level.WARNING, "Could not pre-start a selenium session.", e);
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException ree) {
+				sessionCount.decrementAndGet();  // shut down meanwhile
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Release the session bound to the current thread back to the pool.
+	 */
+	public void release() {
+		ExtendedSelenium session = threadLease.get();
+		if (session == null) {
+			log.log(Level.FINE, "Thread " + Thread.currentThread().getName() + " has no session to release.");
+			return;
+		}
+		release(session);
+	}
+
+	/**
+	 * Release a leased session back to the pool.  A session that isn't leased
+	 * (eg released twice) is ignored.
+	 */
+	public void release(ExtendedSelenium session) {
+		if (threadLease.get() == session) threadLease.remove();
+		if (ExtendedSelenium.getThreadInstance() == session) ExtendedSelenium.setThreadInstance(null);
+		if (!leased.remove(session)) {
+			log.log(Level.FINE, "Ignoring release of a selenium session that isn't leased.");
+			return;
+		}
+		session.pool = null;
+		try {
+			if (shutdown || !session.isStarted() || isWornOut(session) || !reset(session)) {
+				discard(session);
+			}
+			else {
+				idle.addFirst(new IdleSession(session));
+			}
+		}
+		finally {
+			permits.release();
+		}
+		evictIdle();
+		warmUp();
+	}
+
+	/**
+	 * Called by a leased session when it is stopped, gives its slot back.
+	 */
+	protected void stopped(ExtendedSelenium session) {
+		if (threadLease.get() == session) threadLease.remove();
+		if (!leased.remove(session)) return;
+		sessionCount.decrementAndGet();
+		permits.release();
+		warmUp();
+	}
+
+	/**
+	 * Stop sessions that have been idle for longer than maxIdle.
+	 */
+	public void evictIdle() {
+		long cutoff = System.currentTimeMillis() - maxIdleMillis;
+		Iterator<IdleSession> it = idle.descendingIterator();  // oldest first
+		while (it.hasNext()) {
+			IdleSession idleSession = it.next();
+			if (idleSession.idleSince > cutoff) break;
+			if (idle.removeFirstOccurrence(idleSession)) {
+				log.log(Level.FINE, "Stopping selenium session idle since " + idleSession.idleSince);
+				discard(idleSession.session);
+			}
+		}
+	}
+
+	/**
+	 * Stop all idle sessions, and any session released from now on.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		IdleSession idleSession;
+		while ((idleSession = idle.pollFirst()) != null) {
+			discard(idleSession.session);
+		}
+		if (starter != null) starter.shutdown();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public int getLeasedCount() {
+		return leased.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxIdle(long maxIdle, TimeUnit unit) {
+		this.maxIdleMillis = unit.toMillis(maxIdle);
+	}
+
+	public void setLeaseTimeout(long leaseTimeout, TimeUnit unit) {
+		this.leaseTimeoutMillis = unit.toMillis(leaseTimeout);
+	}
+	
+	/**
+	 * @param warmSize - how many started sessions to keep ready for the next lease.
+	 *  Call warmUp() to start them right away.
+	 */
+	public void setWarmSize(int warmSize) {
+		this.warmSize = Math.min(warmSize, maxSize);
+	}
+	
+	/**
+	 * @param maxCommands - replace a session once it has sent this many selenium commands (0 = never)
+	 */
+	public void setMaxCommands(long maxCommands) {
+		this.maxCommands = maxCommands;
+	}
+	
+	/**
+	 * @param maxAge - replace a session once it has been running this long (0 = never)
+	 */
+	public void setMaxAge(long maxAge, TimeUnit unit) {
+		this.maxAgeMillis = unit.toMillis(maxAge);
+	}
+	
+	/**
+	 * @param resetUrl - the page opened when a session is reset between tests, or null to stay on the current page
+	 */
+	public void setResetUrl(String resetUrl) {
+		this.resetUrl = resetUrl;
+	}
+
+	protected ExtendedSelenium takeIdle() {
+		IdleSession idleSession = idle.pollFirst();  // most recently used first
+		return idleSession == null ? null : idleSession.session;
+	}
+
+	/**
+	 * Take one of the maxSize session slots.
+	 * @return false if the pool is full
+	 */
+	protected boolean reserveSession() {
+		int count;
+		do {
+			count = sessionCount.get();
+			if (count >= maxSize) return false;
+		} while (!sessionCount.compareAndSet(count, count + 1));
+		return true;
+	}
+	
+	/**
+	 * Take a session slot for a warm session, if fewer than warmSize sessions are idle
+	 * or starting.  Sessions that aren't leased are idle or starting, so both
+	 * conditions are checked and the slot taken with one compareAndSet of the session
+	 * count, and concurrent warmUp calls can't start more than warmSize between them.
+	 * @return false if the pool is warm enough or full
+	 */
+	protected boolean reserveWarmSession() {
+		int count;
+		do {
+			count = sessionCount.get();
+			if (count >= maxSize || count - leased.size() >= warmSize) return false;
+		} while (!sessionCount.compareAndSet(count, count + 1));
+		return true;
+	}
+	
+	/**
+	 * Start a session in a slot taken by reserveSession.  The slot is given back if this fails.
+	 */
+	protected ExtendedSelenium startReservedSession() {
+		try {
+			ExtendedSelenium session = factory.newSession();
+			session.start();
+			return session;
+		}
+		catch (RuntimeException e) {
+			sessionCount.decrementAndGet();
+			throw e;
+		}
+	}
+	
+	protected boolean isWornOut(ExtendedSelenium session) {
+		if (maxCommands > 0 && session.getCommandMetrics().getTotalCount() >= maxCommands) {
+			log.log(Level.FINE, "Replacing selenium session after " + session.getCommandMetrics().getTotalCount() + " commands.");
+			return true;
+		}
+		if (maxAgeMillis > 0 && System.currentTimeMillis() - session.getStartTime() >= maxAgeMillis) {
+			log.log(Level.FINE, "Replacing selenium session started at " + session.getStartTime());
+			return true;
+		}
+		return false;
+	}
+	
+	protected synchronized ExecutorService getStarter() {
+		if (starter == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			starter = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "selenium-session-starter-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return starter;
+	}
+
+	/**
+	 * Get a session ready for the next test.
+	 * @return false if the session can't be reused
+	 */
+	protected boolean reset(ExtendedSelenium session) {
+		try {
+			session.resetSession(resetUrl);
+			return true;
+		}
+		catch (Exception e) {
+			log.log(Level.FINE, "Could not reset selenium session, discarding it.", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Stop a session and give its slot back.
+	 */
+	protected void discard(ExtendedSelenium session) {
+		sessionCount.decrementAndGet();
+		if (!session.isStarted()) return;
+		try {
+			session.stop();
+		}
+		catch (Exception e) {
+			log.log(Level.FINER, "Could not stop selenium session.", e);
+		}
+	}
+}
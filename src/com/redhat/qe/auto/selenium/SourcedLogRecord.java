@@ -0,0 +1,62 @@
+package com.redhat.qe.auto.selenium;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A LogRecord that knows whether its source class and method were given by the
+ * code that logged it.  If they were not, LogRecord works them out by walking the
+ * stack the first time they are asked for, which is expensive; a formatter can use
+ * {@link #hasExplicitSource()} to avoid that (see ConsoleLogFormatter).
+ */
+public class SourcedLogRecord extends LogRecord {
+
+	private static final long serialVersionUID = -2270329513935718812L;
+
+	private boolean explicitSource = false;
+
+	public SourcedLogRecord(Level level, String message) {
+		super(level, message);
+	}
+
+	/**
+	 * A record like Logger.logp would make.
+	 */
+	public SourcedLogRecord(Level level, Logger logger, String sourceClass, String sourceMethod, String message, Object... parameters) {
+		super(level, message);
+		setLoggerName(logger.getName());
+		source(sourceClass, sourceMethod);
+		if (parameters.length > 0) setParameters(parameters);
+	}
+
+	/**
+	 * Set the source class and method.
+	 * @return this
+	 */
+	public SourcedLogRecord source(String sourceClass, String sourceMethod) {
+		setSourceClassName(sourceClass);
+		setSourceMethodName(sourceMethod);
+		return this;
+	}
+
+	@Override
+	public void setSourceClassName(String sourceClassName) {
+		explicitSource = true;
+		super.setSourceClassName(sourceClassName);
+	}
+
+	@Override
+	public void setSourceMethodName(String sourceMethodName) {
+		explicitSource = true;
+		super.setSourceMethodName(sourceMethodName);
+	}
+
+	/**
+	 * @return true if the source class or method was set, so reading them doesn't
+	 * walk the stack
+	 */
+	public boolean hasExplicitSource() {
+		return explicitSource;
+	}
+}
@@ -0,0 +1,152 @@
+package com.redhat.qe.auto.selenium;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+import com.redhat.qe.jul.TestRecords;
+
+/**
+ * Base of the console formatters: formats a record as
+ * "yyyyMMddHHmm:ss.SSS - LEVEL: message (source)" into a StringBuilder that each
+ * thread reuses.  The date part down to the second is formatted once per second
+ * per thread, only the milliseconds are appended for each record, so formatting
+ * is thread safe and allocates little more than the resulting String.
+ * <p>
+ * Building a record's message can log (a LazyLogRecord describing an element that
+ * isn't there), so the message, source and throwable are read before the builder is
+ * touched, and a format call nested in another one on the same thread gets its own state.
+ */
+public abstract class TimestampedLogFormatter extends Formatter {
+
+	protected static final String BANNER_PREFIX = "======= ";
+	private static final int MAX_KEPT_CAPACITY = 16 * 1024;
+
+	/**
+	 * The per thread state: the reusable builder and the cached timestamp prefix.
+	 */
+	protected static class ThreadState {
+		protected final DateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmm:ss");
+		protected StringBuilder builder = new StringBuilder(256);
+		protected long second = Long.MIN_VALUE;
+		protected String secondPrefix;
+		protected final StringBuilderWriter writer = new StringBuilderWriter();
+		protected boolean formatting = false;
+	}
+
+	private static final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		protected ThreadState initialValue() {
+			return new ThreadState();
+		}
+	};
+
+	@Override
+	public String format(LogRecord record) {
+		// everything that might log runs before the thread's builder is used
+		String message = record.getMessage();
+		if (needsSource()) record.getSourceClassName();
+		Throwable thrown = record.getThrown();
+
+		ThreadState state = threadState.get();
+		if (state.formatting) state = new ThreadState();  // nested in another format call
+		state.formatting = true;
+		try {
+			StringBuilder sb = state.builder;
+			sb.setLength(0);
+			appendTimestamp(state, sb, record.getMillis());
+			sb.append(" - ").append(record.getLevel().getName()).append(": ");
+			if (isBanner(record.getParameters())) sb.append(BANNER_PREFIX);
+			sb.append(message).append(" (");
+			appendSource(sb, record);
+			sb.append(")\n");
+			if (thrown != null) {
+				state.writer.builder = sb;
+				PrintWriter pw = new PrintWriter(state.writer);
+				thrown.printStackTrace(pw);
+				pw.flush();
+				sb.append('\n');
+			}
+			String formatted = sb.toString();
+			if (sb.capacity() > MAX_KEPT_CAPACITY) state.builder = new StringBuilder(256);  // don't keep huge stack traces around
+			return formatted;
+		}
+		finally {
+			state.formatting = false;
+		}
+	}
+
+	/**
+	 * Append what goes between the parentheses at the end of the line.
+	 */
+	protected abstract void appendSource(StringBuilder sb, LogRecord record);
+
+	/**
+	 * @return true if appendSource prints the source class or method, which then
+	 * have to be known before the record leaves the logging thread (see AsyncLogHandler)
+	 */
+	public boolean needsSource() {
+		return true;
+	}
+
+	protected static boolean isBanner(Object[] params) {
+		if (params == null) return false;
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] == TestRecords.Style.Banner) return true;
+		}
+		return false;
+	}
+
+	protected static void appendTimestamp(ThreadState state, StringBuilder sb, long millis) {
+		long second = millis >= 0 ? millis / 1000 : (millis - 999) / 1000;
+		if (second != state.second) {
+			state.secondPrefix = state.dateFormat.format(new Date(second * 1000));
+			state.second = second;
+		}
+		int ms = (int) (millis - second * 1000);
+		sb.append(state.secondPrefix).append('.');
+		if (ms < 100) sb.append('0');
+		if (ms < 10) sb.append('0');
+		sb.append(ms);
+	}
+
+	protected String throwableToString(Throwable t){
+		StringBuilderWriter writer = new StringBuilderWriter();
+		writer.builder = new StringBuilder();
+		PrintWriter pw = new PrintWriter(writer);
+		t.printStackTrace(pw);
+		pw.flush();
+		return writer.builder.toString();
+	}
+
+	/**
+	 * A Writer that appends to a StringBuilder (unlike StringWriter, which has its own buffer).
+	 */
+	protected static class StringBuilderWriter extends Writer {
+		protected StringBuilder builder;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			builder.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			builder.append(str, off, off + len);
+		}
+
+		@Override
+		public void write(int c) {
+			builder.append((char) c);
+		}
+
+		@Override
+		public void flush() {}
+
+		@Override
+		public void close() {}
+	}
+}
@@ -0,0 +1,117 @@
+package com.redhat.qe.auto.selenium;
+
+/**
+ * A javascript condition for waitForCondition, built from parts instead of
+ * concatenated by hand.  Compound conditions are evaluated in the browser as a
+ * single expression, so eg waiting for an element to be visible is one wait with one
+ * timeout, rather than a wait for it to exist followed by a wait for its visibility.
+ * <pre>
+ * sel.waitFor(WaitCondition.visible("id=save").and(WaitCondition.editable("id=name")), "30000");
+ * </pre>
+ * Conditions on an element are false (not an error) while the element doesn't exist.
+ */
+public class WaitCondition {
+
+	protected final String script;
+
+	protected WaitCondition(String script) {
+		this.script = script;
+	}
+
+	/**
+	 * @param script - any javascript expression, evaluated where waitForCondition evaluates it
+	 */
+	public static WaitCondition script(String script) {
+		return new WaitCondition(script);
+	}
+
+	public static WaitCondition present(String locator) {
+		return new WaitCondition("selenium.isElementPresent(" + ExtendedSelenium.jsString(locator) + ")");
+	}
+
+	public static WaitCondition present(Element element) {
+		return present(element.getLocator());
+	}
+
+	public static WaitCondition visible(String locator) {
+		return present(locator).and(new WaitCondition("selenium.isVisible(" + ExtendedSelenium.jsString(locator) + ")"));
+	}
+
+	public static WaitCondition visible(Element element) {
+		return visible(element.getLocator());
+	}
+
+	/**
+	 * @return a condition that is true when the element is hidden or doesn't exist
+	 */
+	public static WaitCondition invisible(String locator) {
+		return visible(locator).not();
+	}
+
+	public static WaitCondition invisible(Element element) {
+		return invisible(element.getLocator());
+	}
+
+	public static WaitCondition editable(String locator) {
+		return present(locator).and(new WaitCondition("selenium.isEditable(" + ExtendedSelenium.jsString(locator) + ")"));
+	}
+
+	public static WaitCondition editable(Element element) {
+		return editable(element.getLocator());
+	}
+
+	/**
+	 * @return a condition that is true when the element isn't disabled.  For a SmartClient
+	 * widget (isc.AutoTest finds a canvas for the element), the canvas must not be disabled.
+	 */
+	public static WaitCondition enabled(String locator) {
+		return present(locator).and(new WaitCondition("(function(elem) { " +
+				"var isc = selenium.browserbot.getUserWindow().isc; " +
+				"var canvas = isc && isc.AutoTest && isc.AutoTest.locateCanvasFromDOMElement(elem); " +
+				"return canvas ? !canvas.isDisabled() : !elem.disabled; " +
+				"})(selenium.browserbot.findElement(" + ExtendedSelenium.jsString(locator) + "))"));
+	}
+
+	public static WaitCondition enabled(Element element) {
+		return enabled(element.getLocator());
+	}
+
+	/**
+	 * @param pattern - a selenium text pattern, anywhere on the page
+	 */
+	public static WaitCondition textPresent(String pattern) {
+		return new WaitCondition("selenium.isTextPresent(" + ExtendedSelenium.jsString(pattern) + ")");
+	}
+
+	/**
+	 * @return a condition that is true when the element's text contains text
+	 */
+	public static WaitCondition containsText(String locator, String text) {
+		return present(locator).and(new WaitCondition("selenium.getText(" + ExtendedSelenium.jsString(locator) + ").indexOf("
+				+ ExtendedSelenium.jsString(text) + ") != -1"));
+	}
+
+	public static WaitCondition containsText(Element element, String text) {
+		return containsText(element.getLocator(), text);
+	}
+
+	public WaitCondition and(WaitCondition other) {
+		return new WaitCondition("(" + script + ") && (" + other.script + ")");
+	}
+
+	public WaitCondition or(WaitCondition other) {
+		return new WaitCondition("(" + script + ") || (" + other.script + ")");
+	}
+
+	public WaitCondition not() {
+		return new WaitCondition("!(" + script + ")");
+	}
+
+	/**
+	 * @return the javascript expression
+	 */
+	@Override
+	public String toString() {
+		return script;
+	}
+}